@@ -0,0 +1,68 @@
+//package com.konradsobczak.bbeat;
+
+/**
+  * BBBytecode - BareBones program compiled to a register instruction stream
+  *
+  * <pre>
+  *     Instruction          Effect
+  *     -------------------- ------------------------------------------------
+  *     CLEAR r              r = 0
+  *     INCR r               r = r + 1
+  *     DECR r               r = r - 1
+  *     COPY s d             d = s
+  *     INIT r s             r = s, error if r is already initialised
+  *     JEQ a b t            jump to t if a == b
+  *     JNE a b t            jump to t if a != b
+  *     JMP t                jump to t
+  *     PRINT n i...         print n items, registers or -(string index + 1)
+  *     HALT                 stop
+  * </pre>
+  * Registers below variableCount hold variables, the rest hold constants.
+  * A variable that isn't defined compares as its name, as in
+  * BBInterpreter, so it only equals itself.
+  *
+  * @author Konrad Sobczak
+  */
+public class BBBytecode {
+    public static final int CLEAR = 0;
+    public static final int INCR = 1;
+    public static final int DECR = 2;
+    public static final int COPY = 3;
+    public static final int INIT = 4;
+    public static final int JEQ = 5;
+    public static final int JNE = 6;
+    public static final int JMP = 7;
+    public static final int PRINT = 8;
+    public static final int HALT = 9;
+
+    final int[] code;
+    final int[] addresses;
+    final int[] registers;
+    final boolean[] defined;
+    final int variableCount;
+    final String[] names;
+    final String[] strings;
+    final BBParser parser;
+
+    /**
+      * Create compiled program
+      *
+      * @param code Instruction stream
+      * @param addresses Statement address of every instruction word, for error messages
+      * @param registers Initial register values
+      * @param defined Which variables are initialised before the program starts
+      * @param names Names of the variable registers
+      * @param strings String literals used by PRINT
+      * @param parser Program the code was compiled from
+      */
+    BBBytecode(int[] code, int[] addresses, int[] registers, boolean[] defined, String[] names, String[] strings, BBParser parser){
+        this.code = code;
+        this.addresses = addresses;
+        this.registers = registers;
+        this.defined = defined;
+        this.variableCount = names.length;
+        this.names = names;
+        this.strings = strings;
+        this.parser = parser;
+    }
+}
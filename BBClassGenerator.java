@@ -0,0 +1,655 @@
+//package com.konradsobczak.bbeat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.function.BooleanSupplier;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+  * BBClassGenerator - translates whole BareBones programs into JVM classes
+  *
+  * The program is turned into Java source, compiled in memory with the
+  * system Java compiler and defined as a hidden class, so HotSpot can
+  * optimise it like any other code. Variables become int locals, while
+  * and if/elif/else become Java loops and branches and incr/decr become
+  * iinc. Functions become static methods; arguments passed by name are
+  * copied back after the call, which matches the sharing done by
+  * BBFunction as long as the function only touches its own parameters
+  * and locals.
+  *
+  * Programs using anything else (eval, strings, non-whole numbers, init
+  * inside functions, recursion, ...) are left to BBInterpreter.
+  *
+  * @author Konrad Sobczak
+  */
+public class BBClassGenerator {
+    private static final String CLASS_NAME = "BBGenerated";
+
+    private final BBParser parser;
+    private final ArrayList<BBStatement> statements;
+    private final HashMap<String, Integer> variables = new HashMap<String, Integer>();
+    private final HashMap<String, Function> functions = new HashMap<String, Function>();
+    private final StringBuilder methods = new StringBuilder();
+    private int blocks = 0;
+
+    /**
+      * A BareBones function translated to a static method
+      */
+    private static class Function {
+        final String name;
+        final ArrayList<String> parameters;
+        final int address;
+        final int end;
+        final HashMap<String, Integer> locals = new HashMap<String, Integer>();
+
+        Function(String name, ArrayList<String> parameters, int address, int end){
+            this.name = name;
+            this.parameters = parameters;
+            this.address = address;
+            this.end = end;
+        }
+    }
+
+    private BBClassGenerator(BBParser parser){
+        this.parser = parser;
+        this.statements = parser.getStatements();
+    }
+
+    /**
+      * Translate a program into a JVM class
+      *
+      * @param parser Parsed program
+      * @param args Arguments given to main function
+      * @return BBEngine running the generated class, or null if the program
+      *         isn't supported or no Java compiler is available
+      */
+    public static BBEngine compile(BBParser parser, String[] args){
+        if(Arrays.asList(args).contains("-v")){
+            return null;
+        }
+        String source = new BBClassGenerator(parser).generate(args);
+        if(source == null){
+            return null;
+        }
+        byte[] bytes = compileSource(source);
+        if(bytes == null){
+            return null;
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            BooleanSupplier program = (BooleanSupplier) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+            return program::getAsBoolean;
+        } catch (Throwable e){
+            return null;
+        }
+    }
+
+    /**
+      * Generate the Java source of the program
+      *
+      * @param args Arguments given to main function
+      * @return String source or null if the program isn't supported
+      */
+    private String generate(String[] args){
+        StringBuilder body = new StringBuilder();
+        for(String arg : args){
+            if(arg.charAt(0) != '-' && arg != args[args.length -1]){
+                String name = arg.substring(0, arg.lastIndexOf("=")).trim();
+                BBVariable value = new BBVariable(arg.substring(arg.lastIndexOf("=") + 1, arg.length()).trim());
+                if(!value.getType().equals("int") || !BBInterpreter.isValidName(name)){
+                    return null;
+                }
+                int index = declare(this.variables, name);
+                body.append("        v").append(index).append(" = ").append((int) value.getLong()).append("; d").append(index).append(" = true;\n");
+            }
+        }
+        if(!collectFunctions() || !collectVariables()){
+            return null;
+        }
+
+        HashSet<String> names = new HashSet<String>(this.variables.keySet());
+        for(Function function : this.functions.values()){
+            names.addAll(function.parameters);
+        }
+        for(Function function : this.functions.values()){
+            if(!collectLocals(function, names)){
+                return null;
+            }
+        }
+        for(Function function : this.functions.values()){
+            if(!method(function)){
+                return null;
+            }
+        }
+        if(!block(0, this.statements.size(), null, body, "        ")){
+            return null;
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("public final class ").append(CLASS_NAME).append(" implements java.util.function.BooleanSupplier {\n");
+        source.append("\n    public boolean getAsBoolean(){\n");
+        for(int i = 0; i < this.variables.size(); i++){
+            source.append("        int v").append(i).append(" = 0; boolean d").append(i).append(" = false;\n");
+        }
+        source.append(body);
+        source.append("        return true;\n    }\n");
+        source.append(this.methods);
+        source.append("\n    static void error(String message, String statement){\n");
+        source.append("        System.out.println(message);\n");
+        source.append("        System.out.println(statement);\n");
+        source.append("        System.exit(1);\n    }\n}\n");
+        return source.toString();
+    }
+
+    /**
+      * Find the functions, which must all be defined at the top level
+      */
+    private boolean collectFunctions(){
+        int count = 0;
+        for(BBStatement statement : this.statements){
+            if(statement.getOpcode() == BBOpcode.FUNC){
+                count++;
+            }
+        }
+        int address = 0;
+        while(address < this.statements.size()){
+            BBStatement statement = this.statements.get(address);
+            if(statement.getOpcode().opensBlock()){
+                int end = this.parser.getBlockEnd(address);
+                if(end >= this.statements.size()){
+                    return false;
+                }
+                if(statement.getOpcode() == BBOpcode.FUNC){
+                    ArrayList<String> arguments = statement.getArguments();
+                    if(arguments.size() < 2 || !Character.isUpperCase(arguments.get(0).charAt(0))
+                        || this.functions.containsKey(arguments.get(0))){
+                        return false;
+                    }
+                    ArrayList<String> parameters = new ArrayList<String>(arguments.subList(1, arguments.size() - 1));
+                    if(new HashSet<String>(parameters).size() != parameters.size()){
+                        return false;
+                    }
+                    this.functions.put(arguments.get(0), new Function(arguments.get(0), parameters, address, end));
+                    count--;
+                }
+                address = end + 1;
+            } else {
+                address++;
+            }
+        }
+        return count == 0;
+    }
+
+    /**
+      * Declare every variable assigned in the main program
+      */
+    private boolean collectVariables(){
+        for(int address = 0; address < this.statements.size(); address++){
+            BBStatement statement = this.statements.get(address);
+            if(statement.getOpcode() == BBOpcode.FUNC){
+                address = this.parser.getBlockEnd(address);
+                continue;
+            }
+            String target = target(statement);
+            if(target != null){
+                if(!BBInterpreter.isValidName(target)){
+                    return false;
+                }
+                declare(this.variables, target);
+            }
+        }
+        return true;
+    }
+
+    /**
+      * Declare the locals of a function, which must not share a name with
+      * anything else the function could see through BBFunction
+      */
+    private boolean collectLocals(Function function, HashSet<String> names){
+        for(int address = function.address + 1; address < function.end; address++){
+            String target = target(this.statements.get(address));
+            if(target != null && !function.parameters.contains(target)){
+                if(!BBInterpreter.isValidName(target) || names.contains(target)){
+                    return false;
+                }
+                declare(function.locals, target);
+            }
+        }
+        names.addAll(function.locals.keySet());
+        return true;
+    }
+
+    private static String target(BBStatement statement){
+        ArrayList<String> arguments = statement.getArguments();
+        switch(statement.getOpcode()){
+            case CLEAR:
+            case INIT:
+                return arguments.isEmpty() ? null : arguments.get(0);
+            case COPY:
+                return arguments.size() < 3 ? null : arguments.get(2);
+            default:
+                return null;
+        }
+    }
+
+    private static int declare(HashMap<String, Integer> scope, String name){
+        Integer index = scope.get(name);
+        if(index == null){
+            index = scope.size();
+            scope.put(name, index);
+        }
+        return index;
+    }
+
+    /**
+      * Generate the static method of a function. Its final statement must
+      * be a return of a parameter, local or whole number
+      */
+    private boolean method(Function function){
+        BBStatement last = this.statements.get(function.end - 1);
+        if(function.end - 1 <= function.address || last.getOpcode() != BBOpcode.RETURN || last.getArguments().size() != 1){
+            return false;
+        }
+        String value = value(last, 0, function);
+        if(value == null){
+            return false;
+        }
+        StringBuilder body = new StringBuilder();
+        if(!block(function.address + 1, function.end - 1, function, body, "        ")){
+            return false;
+        }
+        this.methods.append("\n    static int ").append(function.name).append("(int[] a){\n");
+        // Locals start undefined on every call, as in BBFunctionInterpreter
+        for(int i = 0; i < function.locals.size(); i++){
+            this.methods.append("        int ").append(function.name).append("_v").append(i).append(" = 0; boolean ")
+                .append(function.name).append("_d").append(i).append(" = false;\n");
+        }
+        this.methods.append(body);
+        this.methods.append("        return ").append(value).append(";\n    }\n");
+        return true;
+    }
+
+    /**
+      * Generate the statements of a block
+      *
+      * @param from Address of the first statement
+      * @param to Address after the last statement
+      * @param function Function the block belongs to, null for the main program
+      * @param out Where to write the code
+      * @param indent Indentation of the code
+      * @return false if a statement isn't supported
+      */
+    private boolean block(int from, int to, Function function, StringBuilder out, String indent){
+        int address = from;
+        while(address < to){
+            BBStatement statement = this.statements.get(address);
+            ArrayList<String> arguments = statement.getArguments();
+            String text = string("Line " + this.parser.getLine(address) + ": " + statement);
+            switch(statement.getOpcode()){
+                case CLEAR:
+                case INCR:
+                case DECR: {
+                    String variable = arguments.isEmpty() ? null : variable(arguments.get(0), function);
+                    if(variable == null){
+                        return false;
+                    }
+                    if(statement.getOpcode() == BBOpcode.CLEAR){
+                        out.append(indent).append(variable).append(" = 0;").append(define(arguments.get(0), function)).append("\n");
+                    } else {
+                        out.append(indent).append(variable).append(statement.getOpcode() == BBOpcode.INCR ? "++;\n" : "--;\n");
+                    }
+                    break;
+                }
+                case COPY: {
+                    if(arguments.size() < 3){
+                        return false;
+                    }
+                    String source = variable(arguments.get(0), function);
+                    String target = variable(arguments.get(2), function);
+                    if(source == null || target == null){
+                        return false;
+                    }
+                    out.append(indent).append("if(!").append(defined(arguments.get(0), function)).append("){\n");
+                    out.append(indent).append("    System.out.print(\"Error: Variable not found\");\n");
+                    out.append(indent).append("    System.out.println(").append(text).append(");\n");
+                    out.append(indent).append("    ").append(fail(function)).append("\n");
+                    out.append(indent).append("}\n");
+                    out.append(indent).append(target).append(" = ").append(source).append(";")
+                        .append(define(arguments.get(2), function)).append("\n");
+                    break;
+                }
+                case INIT: {
+                    if(function != null || arguments.size() < 3 || !statement.isConstant(2)){
+                        return false;
+                    }
+                    String variable = variable(arguments.get(0), function);
+                    String value = value(statement, 2, function);
+                    if(variable == null || value == null){
+                        return false;
+                    }
+                    out.append(indent).append("if(").append(defined(arguments.get(0), function)).append("){ error(")
+                        .append(string("Error: trying to initialise an existing variable " + arguments.get(0))).append(", ").append(text).append("); }\n");
+                    out.append(indent).append(variable).append(" = ").append(value).append(";").append(define(arguments.get(0), function)).append("\n");
+                    break;
+                }
+                case SET: {
+                    if(arguments.size() < 3){
+                        return false;
+                    }
+                    String variable = variable(arguments.get(0), function);
+                    if(variable == null){
+                        return false;
+                    }
+                    out.append(indent).append("if(!").append(defined(arguments.get(0), function)).append("){ error(")
+                        .append(string("Error: trying to access an inexisting variable " + arguments.get(0))).append(", ").append(text).append("); }\n");
+                    if(arguments.size() == 3 && !this.functions.containsKey(arguments.get(2))){
+                        String value = value(statement, 2, function);
+                        if(value == null){
+                            return false;
+                        }
+                        if(!statement.isConstant(2) && !defined(arguments.get(2), function).equals("true")){
+                            out.append(indent).append("if(!").append(defined(arguments.get(2), function)).append("){ error(")
+                                .append(string("Error: Invalid statement")).append(", ").append(text).append("); }\n");
+                        }
+                        out.append(indent).append(variable).append(" = ").append(value).append(";\n");
+                    } else if(!call(arguments.get(2), new ArrayList<String>(arguments.subList(3, arguments.size())), address, variable, function, out, indent)){
+                        return false;
+                    }
+                    break;
+                }
+                case PRINT: {
+                    if(arguments.isEmpty()){
+                        return false;
+                    }
+                    for(int i = 0; i < arguments.size(); i++){
+                        String argument = arguments.get(i);
+                        String separator = i == arguments.size() - 1 ? "println" : "print";
+                        if(argument.equals("eval")){
+                            return false;
+                        } else if(argument.contains("\"")){
+                            String item = argument.replace("\"", "") + (i == arguments.size() - 1 ? "" : " ");
+                            out.append(indent).append("System.out.").append(separator).append("(").append(string(item)).append(");\n");
+                        } else {
+                            String variable = variable(argument, function);
+                            if(variable == null){
+                                return false;
+                            }
+                            out.append(indent).append("if(!").append(defined(argument, function)).append("){\n");
+                            out.append(indent).append("    System.out.print(\"Error: Variable not found\");\n");
+                            out.append(indent).append("    System.out.println(").append(text).append(");\n");
+                            out.append(indent).append("    ").append(fail(function)).append("\n");
+                            out.append(indent).append("}\n");
+                            out.append(indent).append("System.out.").append(separator).append("(").append(variable)
+                                .append(i == arguments.size() - 1 ? "" : " + \" \"").append(");\n");
+                        }
+                    }
+                    break;
+                }
+                case WHILE: {
+                    String condition = condition(statement, function, false);
+                    int end = this.parser.getBlockEnd(address);
+                    if(condition == null || end >= to){
+                        return false;
+                    }
+                    out.append(indent).append("while(").append(condition).append("){\n");
+                    if(!block(address + 1, end, function, out, indent + "    ")){
+                        return false;
+                    }
+                    out.append(indent).append("}\n");
+                    address = end;
+                    break;
+                }
+                case IF: {
+                    int block = address;
+                    out.append(indent);
+                    while(true){
+                        BBStatement blockStatement = this.statements.get(block);
+                        int end = this.parser.getBlockEnd(block);
+                        if(end >= to){
+                            return false;
+                        }
+                        if(blockStatement.getOpcode() == BBOpcode.ELSE){
+                            out.append("{\n");
+                        } else {
+                            String condition = condition(blockStatement, function, true);
+                            if(condition == null){
+                                return false;
+                            }
+                            out.append("if(").append(condition).append("){\n");
+                        }
+                        if(!block(block + 1, end, function, out, indent + "    ")){
+                            return false;
+                        }
+                        out.append(indent).append("}");
+                        address = end;
+                        if(blockStatement.getOpcode() == BBOpcode.ELSE || end + 1 >= to
+                            || (this.statements.get(end + 1).getOpcode() != BBOpcode.ELIF && this.statements.get(end + 1).getOpcode() != BBOpcode.ELSE)){
+                            break;
+                        }
+                        out.append(" else ");
+                        block = end + 1;
+                    }
+                    out.append("\n");
+                    break;
+                }
+                case FUNC:
+                    if(function != null){
+                        return false;
+                    }
+                    address = this.parser.getBlockEnd(address);
+                    break;
+                case END:
+                    break;
+                case RETURN:
+                    if(function == null || arguments.size() != 1 || value(statement, 0, function) == null){
+                        return false;
+                    }
+                    break;
+                case CALL:
+                    if(!call(statement.getOperation(), arguments, address, null, function, out, indent)){
+                        return false;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+            address++;
+        }
+        return true;
+    }
+
+    /**
+      * Generate a function call, copying arguments passed by name back
+      *
+      * @param name Name of the function
+      * @param arguments Arguments of the call
+      * @param address Address of the calling statement
+      * @param result Where to store the returned value, null to drop it
+      * @param function Function making the call, null for the main program
+      */
+    private boolean call(String name, ArrayList<String> arguments, int address, String result, Function function, StringBuilder out, String indent){
+        Function callee = this.functions.get(name);
+        if(callee == null || callee.parameters.size() != arguments.size()){
+            return false;
+        }
+        // Functions may only call functions defined before them, so there is
+        // no recursion or call cycle
+        if(function == null ? callee.address > address : callee.address >= function.address){
+            return false;
+        }
+        if(new HashSet<String>(arguments).size() != arguments.size()){
+            return false;
+        }
+        String[] values = new String[arguments.size()];
+        for(int i = 0; i < values.length; i++){
+            BBVariable constant = BBStatement.isLiteral(arguments.get(i)) ? new BBVariable(arguments.get(i)) : null;
+            values[i] = constant != null ? constantValue(constant) : variable(arguments.get(i), function);
+            if(values[i] == null){
+                return false;
+            }
+        }
+        String array = "a" + (this.blocks++);
+        out.append(indent).append("{\n");
+        out.append(indent).append("    int[] ").append(array).append(" = new int[]{").append(String.join(", ", values)).append("};\n");
+        out.append(indent).append("    int r = ").append(callee.name).append("(").append(array).append(");\n");
+        for(int i = 0; i < values.length; i++){
+            if(!BBStatement.isLiteral(arguments.get(i))){
+                out.append(indent).append("    ").append(values[i]).append(" = ").append(array).append("[").append(i).append("];\n");
+            }
+        }
+        if(result != null){
+            out.append(indent).append("    ").append(result).append(" = r;\n");
+        }
+        out.append(indent).append("}\n");
+        return true;
+    }
+
+    /**
+      * Generate the statement ending a block after a failed statement: the
+      * main program stops, a function skips the rest of its body as
+      * BBFunctionInterpreter does
+      *
+      * @param function Function the statement belongs to, null for the main program
+      */
+    private static String fail(Function function){
+        return function == null ? "return false;" : "return 0;";
+    }
+
+    /**
+      * Generate the condition under which a while or if block runs
+      *
+      * @param statement Statement holding the condition
+      * @param function Function the statement belongs to
+      * @param isIf true for if and elif, false for while
+      */
+    private String condition(BBStatement statement, Function function, boolean isIf){
+        ArrayList<String> arguments = statement.getArguments();
+        if(arguments.size() < 3){
+            return null;
+        }
+        String left = value(statement, 0, function);
+        String right = value(statement, 2, function);
+        if(left == null || right == null){
+            return null;
+        }
+        boolean runsWhenDifferent = arguments.get(1).equals("not");
+        // A variable that isn't defined compares as its name, as in
+        // BBInterpreter, so it only equals itself
+        String guard = "";
+        if(!arguments.get(0).equals(arguments.get(2))){
+            for(int index = 0; index <= 2; index += 2){
+                String defined = statement.isConstant(index) ? "true" : defined(arguments.get(index), function);
+                if(!defined.equals("true")){
+                    guard += defined + " && ";
+                }
+            }
+        }
+        if(guard.isEmpty()){
+            return left + (runsWhenDifferent ? " != " : " == ") + right;
+        }
+        return (runsWhenDifferent ? "!(" : "(") + guard + left + " == " + right + ")";
+    }
+
+    private String value(BBStatement statement, int index, Function function){
+        if(statement.isConstant(index)){
+            return constantValue(statement.getConstant(index));
+        }
+        return variable(statement.getArguments().get(index), function);
+    }
+
+    private static String constantValue(BBVariable constant){
+        if(!constant.getType().equals("int")){
+            return null;
+        }
+        return "" + (int) constant.getLong();
+    }
+
+    private String variable(String name, Function function){
+        if(function == null){
+            Integer index = this.variables.get(name);
+            return index != null ? "v" + index : null;
+        }
+        int parameter = function.parameters.indexOf(name);
+        if(parameter != -1){
+            return "a[" + parameter + "]";
+        }
+        Integer index = function.locals.get(name);
+        return index != null ? function.name + "_v" + index : null;
+    }
+
+    private String defined(String name, Function function){
+        if(function == null){
+            return "d" + this.variables.get(name);
+        }
+        if(function.parameters.contains(name)){
+            return "true";
+        }
+        return function.name + "_d" + function.locals.get(name);
+    }
+
+    private String define(String name, Function function){
+        String defined = defined(name, function);
+        return defined.equals("true") ? "" : " " + defined + " = true;";
+    }
+
+    private static String string(String text){
+        StringBuilder literal = new StringBuilder("\"");
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(c == '"' || c == '\\'){
+                literal.append('\\').append(c);
+            } else if(c < ' ' || c > '~'){
+                literal.append(String.format("\\u%04x", (int) c));
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    /**
+      * Compile the generated source in memory
+      *
+      * @param source Java source of the generated class
+      * @return byte[] class file or null if it can't be compiled
+      */
+    private static byte[] compileSource(String source){
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if(javac == null){
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + CLASS_NAME + ".java"), JavaFileObject.Kind.SOURCE){
+            public CharSequence getCharContent(boolean ignoreEncodingErrors){
+                return source;
+            }
+        };
+        StandardJavaFileManager standard = javac.getStandardFileManager(null, null, null);
+        JavaFileManager manager = new ForwardingJavaFileManager<StandardJavaFileManager>(standard){
+            public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className, JavaFileObject.Kind kind, FileObject sibling){
+                return new SimpleJavaFileObject(URI.create("bytes:///" + className + ".class"), kind){
+                    public OutputStream openOutputStream(){
+                        return bytes;
+                    }
+                };
+            }
+        };
+        Boolean compiled = javac.getTask(new StringWriter(), manager, diagnostic -> {}, Arrays.asList("-g:none", "-proc:none"), null, Arrays.asList(file)).call();
+        return compiled ? bytes.toByteArray() : null;
+    }
+}
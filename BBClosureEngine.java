@@ -0,0 +1,450 @@
+//package com.konradsobczak.bbeat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+  * BBClosureEngine - executes BareBones statements compiled to pre-bound nodes
+  *
+  * Every statement is turned once into a node with its variables resolved
+  * to slots, its literals parsed and its branch targets taken from the
+  * parser's jump table. Running the program is then a loop calling the
+  * node at the current address, which returns the next address.
+  *
+  * Programs defining functions, and runs under -v, are left to BBInterpreter.
+  *
+  * @author Konrad Sobczak
+  */
+public class BBClosureEngine implements BBEngine {
+    private static final int FAILED = -1;
+
+    /**
+      * Compiled statement
+      */
+    private interface Node {
+        /**
+          * Execute the statement
+          *
+          * @return int address of the next statement, FAILED if the statement failed
+          */
+        int run();
+    }
+
+    private final BBParser parser;
+    private final HashMap<String, Integer> slots = new HashMap<String, Integer>();
+    private BBVariable[] variables;
+    private final Node[] nodes;
+    private final BBVariable result = new BBVariable("0");
+    private static final BBVariable ZERO = new BBVariable("0");
+
+    private BBClosureEngine(BBParser parser){
+        this.parser = parser;
+        this.nodes = new Node[parser.getStatements().size()];
+    }
+
+    /**
+      * Compile a program and create an engine for it
+      *
+      * @param parser Parsed program
+      * @param args Arguments given to main function
+      * @return BBClosureEngine or null if the program isn't supported
+      */
+    public static BBClosureEngine create(BBParser parser, String[] args){
+        if(Arrays.asList(args).contains("-v")){
+            return null;
+        }
+        BBClosureEngine engine = new BBClosureEngine(parser);
+        ArrayList<BBStatement> statements = parser.getStatements();
+        for(int address = 0; address < statements.size(); address++){
+            Node node = engine.compile(statements.get(address), address);
+            if(node == null){
+                return null;
+            }
+            engine.nodes[address] = node;
+        }
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<String> values = new ArrayList<String>();
+        for(String arg : args){
+            if(arg.charAt(0) != '-' && arg != args[args.length -1]){
+                names.add(arg.substring(0, arg.lastIndexOf("=")).trim());
+                values.add(arg.substring(arg.lastIndexOf("=") + 1, arg.length()).trim());
+                engine.slot(names.get(names.size() - 1));
+            }
+        }
+        engine.variables = new BBVariable[engine.slots.size()];
+        for(int i = 0; i < names.size(); i++){
+            engine.setVariable(engine.slot(names.get(i)), names.get(i), new BBVariable(values.get(i)), -1);
+        }
+        return engine;
+    }
+
+    /**
+      * Execute entire program
+      * @return true if all statements executed correctly
+      */
+    public boolean executeSource(){
+        final Node[] nodes = this.nodes;
+        int address = 0;
+        while(address < nodes.length){
+            address = nodes[address].run();
+            if(address == FAILED){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+      * Compile a single statement
+      *
+      * @param statement Statement to be compiled
+      * @param address Address of the statement
+      * @return Node or null if the statement isn't supported
+      */
+    private Node compile(BBStatement statement, int address){
+        ArrayList<String> args = statement.getArguments();
+        final int next = address + 1;
+        final int branch = this.parser.getBranch(address);
+        switch(statement.getOpcode()){
+            case PRINT: {
+                if(args.isEmpty()){
+                    return null;
+                }
+                return print(args, address);
+            }
+            case INCR:
+            case DECR: {
+                if(args.isEmpty()){
+                    return null;
+                }
+                final int slot = slot(args.get(0));
+                if(statement.getOpcode() == BBOpcode.INCR){
+                    return () -> this.variables[slot].increment() ? next : FAILED;
+                }
+                return () -> this.variables[slot].decrement() ? next : FAILED;
+            }
+            case COPY: {
+                if(args.size() < 3){
+                    return null;
+                }
+                final int source = slot(args.get(0));
+                final int target = slot(args.get(2));
+                final String targetName = args.get(2);
+                return () -> {
+                    BBVariable variable = this.variables[source];
+                    if(variable == null){
+                        System.out.print("Error: Variable not found");
+                        printLine(address);
+                        return FAILED;
+                    }
+                    setVariable(target, targetName, variable, address);
+                    return next;
+                };
+            }
+            case CLEAR: {
+                if(args.isEmpty()){
+                    return null;
+                }
+                final int slot = slot(args.get(0));
+                final String name = args.get(0);
+                return () -> {
+                    BBVariable variable = this.variables[slot];
+                    if(variable != null){
+                        return variable.clear() ? next : FAILED;
+                    }
+                    setVariable(slot, name, ZERO, address);
+                    return next;
+                };
+            }
+            case INIT: {
+                if(args.size() < 3){
+                    return null;
+                }
+                final int slot = slot(args.get(0));
+                final String name = args.get(0);
+                final BBVariable value = statement.isConstant(2) ? statement.getConstant(2) : new BBVariable(args.get(2));
+                return () -> {
+                    if(this.variables[slot] != null){
+                        System.out.println("Error: trying to initialise an existing variable " + name);
+                        printLine(address);
+                        System.exit(1);
+                    }
+                    setVariable(slot, name, new BBVariable(value), address);
+                    return next;
+                };
+            }
+            case SET: {
+                if(args.size() < 3){
+                    return null;
+                }
+                final int slot = slot(args.get(0));
+                final String name = args.get(0);
+                final Value value = value(new ArrayList<String>(args.subList(2, args.size())), address);
+                return () -> {
+                    if(this.variables[slot] == null){
+                        System.out.println("Error: trying to access an inexisting variable " + name);
+                        printLine(address);
+                        System.exit(1);
+                    }
+                    setVariable(slot, name, value.get(), address);
+                    return next;
+                };
+            }
+            case WHILE:
+            case IF:
+            case ELIF: {
+                if(args.size() < 3){
+                    return null;
+                }
+                final Operand left = operand(statement, 0);
+                final Operand right = operand(statement, 2);
+                // As in BBLoopCondition and BBIfCondition, "not" leaves the
+                // block once the operands are the same, "is" once they differ
+                final boolean leaveWhenSame = args.get(1).equals("not");
+                return () -> left.get().sameValue(right.get()) == leaveWhenSame ? branch : next;
+            }
+            case ELSE:
+                return () -> next;
+            case END: {
+                final int target = branch != -1 ? branch : next;
+                return () -> target;
+            }
+            case FUNC:
+                return null;
+            default: {
+                final String operation = statement.getOperation();
+                return () -> {
+                    System.out.println("Error: no such operation " + operation);
+                    printLine(address);
+                    System.exit(1);
+                    return FAILED;
+                };
+            }
+        }
+    }
+
+    /**
+      * Value of a condition operand
+      */
+    private interface Operand {
+        BBVariable get();
+    }
+
+    /**
+      * Resolve a condition operand: its literal value, or the variable it
+      * names, or the name itself as a string if there is no such variable
+      */
+    private Operand operand(BBStatement statement, int index){
+        if(statement.isConstant(index)){
+            final BBVariable constant = statement.getConstant(index);
+            return () -> constant;
+        }
+        final String name = statement.getArguments().get(index);
+        final int slot = slot(name);
+        return () -> {
+            BBVariable variable = this.variables[slot];
+            return variable != null ? variable : new BBVariable(name);
+        };
+    }
+
+    /**
+      * Value of the expression of a set statement
+      */
+    private interface Value {
+        BBVariable get();
+    }
+
+    /**
+      * Compile the expression of a set statement: a literal, a variable or eval
+      */
+    private Value value(ArrayList<String> expression, int address){
+        final String text = String.join(" ", expression);
+        if(text.matches("(^true$)|(^false$)|(^\".*\"$)")){
+            final BBVariable constant = new BBVariable(text);
+            return () -> constant;
+        }
+        ArrayList<String> words = new ArrayList<String>(Arrays.asList(text.split(" ")));
+        words.removeIf(a -> a.equals(""));
+        final String operation = words.get(0);
+        if(operation.equals("eval")){
+            final Expression math = new Expression(new ArrayList<String>(words.subList(1, words.size())), address);
+            return () -> math.evaluate(this.result);
+        }
+        final int slot = slot(operation);
+        final BBVariable literal = operation.matches("(^[0-9]*\\.?[0-9]?)|(^\"([a-z]|[A-Z])*\"$)|(^'([a-z]|[A-Z])*'$)")
+            ? new BBVariable(operation) : null;
+        return () -> {
+            BBVariable variable = this.variables[slot];
+            if(variable != null){
+                return variable;
+            } else if(literal != null){
+                return literal;
+            }
+            System.out.println("Error: Invalid statement");
+            printLine(address);
+            System.exit(1);
+            return null;
+        };
+    }
+
+    /**
+      * Maths expression, compiled with its names bound to the slots of the
+      * words they make up once their parentheses are stripped. Expressions
+      * that don't compile are left to fail when they are evaluated
+      */
+    private class Expression implements MathEval.Bindings {
+        private final MathEval.Expression compiled;
+        private final RuntimeException error;
+        private final int[] nameSlots;
+        private final int address;
+
+        Expression(ArrayList<String> words, int address){
+            this.address = address;
+            MathEval.Expression expression = null;
+            RuntimeException error = null;
+            try {
+                expression = BBScope.compile(String.join(" ", words));
+            } catch (RuntimeException e){
+                error = e;
+            }
+            this.compiled = expression;
+            this.error = error;
+            String[] names = expression != null ? expression.getVariables() : new String[0];
+            this.nameSlots = new int[names.length];
+            for(int i = 0; i < names.length; i++){
+                this.nameSlots[i] = -1;
+                for(String word : words){
+                    if(word.replace("(", "").replace(")", "").equals(names[i])){
+                        this.nameSlots[i] = slot(names[i]);
+                        break;
+                    }
+                }
+            }
+        }
+
+        public boolean isBound(int index){
+            BBVariable variable = this.nameSlots[index] != -1 ? variables[this.nameSlots[index]] : null;
+            return variable != null && variable.getTag() <= BBVariable.DOUBLE;
+        }
+
+        public double getValue(int index){
+            return variables[this.nameSlots[index]].getDouble();
+        }
+
+        public boolean isIntegral(int index){
+            return variables[this.nameSlots[index]].getTag() == BBVariable.INT;
+        }
+
+        public long getLong(int index){
+            return variables[this.nameSlots[index]].getLong();
+        }
+
+        /**
+          * Evaluate the expression, exactly if it only involves whole numbers
+          *
+          * @param result Variable set to the value
+          * @return BBVariable result
+          */
+        BBVariable evaluate(BBVariable result){
+            if(this.error != null){
+                invalid();
+            }
+            try {
+                if(!result.setExact(this.compiled.evaluateExact(this))){
+                    result.setDouble(this.compiled.evaluate(this));
+                }
+            } catch (Exception e){
+                invalid();
+            }
+            return result;
+        }
+
+        /**
+          * Report an expression that failed to compile or to evaluate
+          */
+        private void invalid(){
+            System.out.println("Error: Invalid math expression");
+            printLine(this.address);
+            System.exit(1);
+        }
+    }
+
+    /**
+      * Compile a print statement
+      */
+    private Node print(ArrayList<String> args, int address){
+        final int size = args.size();
+        final String[] texts = new String[size];
+        final int[] itemSlots = new int[size];
+        Expression evaluation = null;
+        int count = size;
+        for(int i = 0; i < size; i++){
+            String arg = args.get(i);
+            itemSlots[i] = -1;
+            if(arg.equals("eval")){
+                evaluation = new Expression(new ArrayList<String>(args.subList(i + 1, size)), address);
+                count = i;
+                break;
+            } else if(arg.contains("\"")){
+                texts[i] = arg.replace("\"", "");
+            } else {
+                itemSlots[i] = slot(arg);
+            }
+        }
+        final Expression math = evaluation;
+        final int items = count;
+        final int next = address + 1;
+        return () -> {
+            for(int i = 0; i < items; i++){
+                String text = texts[i];
+                if(itemSlots[i] != -1){
+                    BBVariable variable = this.variables[itemSlots[i]];
+                    if(variable == null){
+                        System.out.print("Error: Variable not found");
+                        printLine(address);
+                        return FAILED;
+                    }
+                    text = variable.getString();
+                }
+                if(i == size - 1){
+                    System.out.println(text);
+                } else {
+                    System.out.print(text + " ");
+                }
+            }
+            if(math != null){
+                System.out.println(math.evaluate(this.result));
+            }
+            return next;
+        };
+    }
+
+    private int slot(String name){
+        Integer slot = this.slots.get(name);
+        if(slot == null){
+            slot = this.slots.size();
+            this.slots.put(name, slot);
+        }
+        return slot;
+    }
+
+    private void setVariable(int slot, String name, BBVariable value, int address){
+        if(BBInterpreter.isValidName(name)){
+            if(this.variables[slot] == null){
+                this.variables[slot] = new BBVariable(value);
+            } else {
+                this.variables[slot].set(value);
+            }
+        } else {
+            System.out.println("Error: Invalid name of variable: " + name);
+            printLine(address);
+            System.exit(1);
+        }
+    }
+
+    private void printLine(int address){
+        System.out.print("Line " + this.parser.getLine(address) + ": ");
+        System.out.println(this.parser.getStatement(address));
+    }
+}
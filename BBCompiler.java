@@ -0,0 +1,272 @@
+//package com.konradsobczak.bbeat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+  * BBCompiler - compiles parsed BareBones statements to BBBytecode
+  *
+  * Only whole-number programs built from clear, incr, decr, copy, init,
+  * while, if/elif/else and print of strings and variables are supported,
+  * anything else is left to BBInterpreter.
+  *
+  * @author Konrad Sobczak
+  */
+public class BBCompiler {
+    private final BBParser parser;
+    private final HashMap<String, Integer> variables = new HashMap<String, Integer>();
+    private final ArrayList<String> names = new ArrayList<String>();
+    private final HashMap<Integer, Integer> constants = new HashMap<Integer, Integer>();
+    private final ArrayList<Integer> constantValues = new ArrayList<Integer>();
+    private final ArrayList<String> strings = new ArrayList<String>();
+    private final ArrayList<Integer> initialValues = new ArrayList<Integer>();
+    private final ArrayList<Integer> patches = new ArrayList<Integer>();
+    private int[] code = new int[64];
+    private int[] addresses = new int[64];
+    private int size = 0;
+
+    private BBCompiler(BBParser parser){
+        this.parser = parser;
+    }
+
+    /**
+      * Compile a program
+      *
+      * @param parser Parsed program
+      * @param args Arguments given to main function
+      * @return BBBytecode or null if the program uses anything unsupported
+      */
+    public static BBBytecode compile(BBParser parser, String[] args){
+        return new BBCompiler(parser).compile(args);
+    }
+
+    private BBBytecode compile(String[] args){
+        if(Arrays.asList(args).contains("-v")){
+            return null;
+        }
+        for(String arg : args){
+            if(arg.charAt(0) != '-' && arg != args[args.length -1]){
+                String name = arg.substring(0, arg.lastIndexOf("=")).trim();
+                BBVariable value = new BBVariable(arg.substring(arg.lastIndexOf("=") + 1, arg.length()).trim());
+                if(!value.getType().equals("int") || !BBInterpreter.isValidName(name)){
+                    return null;
+                }
+                int register = declare(name);
+                this.initialValues.set(register, (int) value.getLong());
+            }
+        }
+        int definedOnStart = this.names.size();
+
+        ArrayList<BBStatement> statements = this.parser.getStatements();
+        for(BBStatement statement : statements){
+            ArrayList<String> arguments = statement.getArguments();
+            String target = null;
+            if(statement.getOpcode() == BBOpcode.CLEAR || statement.getOpcode() == BBOpcode.INIT){
+                target = arguments.isEmpty() ? null : arguments.get(0);
+            } else if(statement.getOpcode() == BBOpcode.COPY){
+                target = arguments.size() < 3 ? null : arguments.get(2);
+            }
+            if(target != null){
+                if(!BBInterpreter.isValidName(target)){
+                    return null;
+                }
+                declare(target);
+            }
+        }
+
+        int[] statementPcs = new int[statements.size() + 1];
+        for(int address = 0; address < statements.size(); address++){
+            statementPcs[address] = this.size;
+            if(!emit(statements.get(address), address)){
+                return null;
+            }
+        }
+        statementPcs[statements.size()] = this.size;
+        add(BBBytecode.HALT, statements.size());
+        for(int patch : this.patches){
+            this.code[patch] = statementPcs[Math.min(this.code[patch], statements.size())];
+        }
+
+        int variableCount = this.names.size();
+        int[] registers = new int[variableCount + this.constantValues.size()];
+        for(int i = 0; i < variableCount; i++){
+            registers[i] = this.initialValues.get(i);
+        }
+        for(int i = 0; i < this.constantValues.size(); i++){
+            registers[variableCount + i] = this.constantValues.get(i);
+        }
+        boolean[] defined = new boolean[variableCount];
+        Arrays.fill(defined, 0, definedOnStart, true);
+        return new BBBytecode(Arrays.copyOf(this.code, this.size), Arrays.copyOf(this.addresses, this.size), registers, defined,
+            this.names.toArray(new String[0]), this.strings.toArray(new String[0]), this.parser);
+    }
+
+    /**
+      * Emit the instructions of a statement
+      *
+      * @param statement Statement to be compiled
+      * @param address Address of the statement
+      * @return false if the statement isn't supported
+      */
+    private boolean emit(BBStatement statement, int address){
+        ArrayList<String> arguments = statement.getArguments();
+        switch(statement.getOpcode()){
+            case CLEAR:
+            case INCR:
+            case DECR:
+                if(arguments.isEmpty() || variable(arguments.get(0)) == -1){
+                    return false;
+                }
+                int opcode = statement.getOpcode() == BBOpcode.CLEAR ? BBBytecode.CLEAR
+                    : statement.getOpcode() == BBOpcode.INCR ? BBBytecode.INCR : BBBytecode.DECR;
+                add(opcode, address);
+                add(variable(arguments.get(0)), address);
+                return true;
+            case COPY:
+                if(arguments.size() < 3 || variable(arguments.get(0)) == -1){
+                    return false;
+                }
+                add(BBBytecode.COPY, address);
+                add(variable(arguments.get(0)), address);
+                add(variable(arguments.get(2)), address);
+                return true;
+            case INIT:
+                if(arguments.size() < 3 || !statement.isConstant(2) || operand(statement, 2) == -1){
+                    return false;
+                }
+                add(BBBytecode.INIT, address);
+                add(variable(arguments.get(0)), address);
+                add(operand(statement, 2), address);
+                return true;
+            case WHILE:
+            case IF:
+            case ELIF:
+                return condition(statement, address, true, this.parser.getBranch(address));
+            case ELSE:
+                return true;
+            case END:
+                int owner = this.parser.getBlockEnd(address);
+                if(owner == -1){
+                    return true;
+                }
+                if(this.parser.getStatement(owner).getOpcode() == BBOpcode.WHILE){
+                    return condition(this.parser.getStatement(owner), address, false, owner + 1);
+                }
+                int branch = this.parser.getBranch(address);
+                if(branch != -1 && branch != address + 1){
+                    add(BBBytecode.JMP, address);
+                    target(branch, address);
+                }
+                return true;
+            case PRINT:
+                if(arguments.isEmpty()){
+                    return false;
+                }
+                int[] items = new int[arguments.size()];
+                for(int i = 0; i < items.length; i++){
+                    String argument = arguments.get(i);
+                    if(argument.equals("eval")){
+                        return false;
+                    } else if(argument.contains("\"")){
+                        this.strings.add(argument.replace("\"", ""));
+                        items[i] = -this.strings.size();
+                    } else if((items[i] = variable(argument)) == -1){
+                        return false;
+                    }
+                }
+                add(BBBytecode.PRINT, address);
+                add(items.length, address);
+                for(int item : items){
+                    add(item, address);
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+      * Emit a conditional jump for a while, if or elif condition
+      *
+      * @param statement Statement holding the condition
+      * @param address Address the instruction belongs to
+      * @param whenFinished Jump when the condition is finished rather than when it isn't
+      * @param target Statement address to jump to
+      * @return false if the condition isn't supported
+      */
+    private boolean condition(BBStatement statement, int address, boolean whenFinished, int target){
+        ArrayList<String> arguments = statement.getArguments();
+        if(arguments.size() < 3){
+            return false;
+        }
+        int left = operand(statement, 0);
+        int right = operand(statement, 2);
+        if(left == -1 || right == -1){
+            return false;
+        }
+        boolean finishedWhenEqual = arguments.get(1).equals("not");
+        add(finishedWhenEqual == whenFinished ? BBBytecode.JEQ : BBBytecode.JNE, address);
+        add(left, address);
+        add(right, address);
+        target(target, address);
+        return true;
+    }
+
+    private int declare(String name){
+        Integer register = this.variables.get(name);
+        if(register == null){
+            register = this.names.size();
+            this.variables.put(name, register);
+            this.names.add(name);
+            this.initialValues.add(0);
+        }
+        return register;
+    }
+
+    private int variable(String name){
+        Integer register = this.variables.get(name);
+        return register != null ? register : -1;
+    }
+
+    /**
+      * Get the register of an operand. Constants are placed after the
+      * variables, which are all declared before any code is emitted
+      *
+      * @param statement Statement holding the operand
+      * @param index Index of the operand
+      * @return int register, -1 if the operand isn't supported
+      */
+    private int operand(BBStatement statement, int index){
+        if(!statement.isConstant(index)){
+            return variable(statement.getArguments().get(index));
+        }
+        BBVariable constant = statement.getConstant(index);
+        if(!constant.getType().equals("int")){
+            return -1;
+        }
+        int value = (int) constant.getLong();
+        Integer register = this.constants.get(value);
+        if(register == null){
+            register = this.constantValues.size();
+            this.constants.put(value, register);
+            this.constantValues.add(value);
+        }
+        return this.names.size() + register;
+    }
+
+    private void target(int address, int statement){
+        this.patches.add(this.size);
+        add(address, statement);
+    }
+
+    private void add(int word, int address){
+        if(this.size == this.code.length){
+            this.code = Arrays.copyOf(this.code, this.size * 2);
+            this.addresses = Arrays.copyOf(this.addresses, this.size * 2);
+        }
+        this.code[this.size] = word;
+        this.addresses[this.size] = address;
+        this.size++;
+    }
+}
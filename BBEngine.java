@@ -0,0 +1,14 @@
+//package com.konradsobczak.bbeat;
+
+/**
+  * BBEngine - something that can run a whole BareBones program
+  *
+  * @author Konrad Sobczak
+  */
+public interface BBEngine {
+    /**
+      * Execute entire program
+      * @return true if all statements executed correctly
+      */
+    public boolean executeSource();
+}
@@ -0,0 +1,170 @@
+//package com.konradsobczak.bbeat;
+
+import java.util.Arrays;
+
+/**
+  * BBFrame - activation of a BareBones function call
+  *
+  * The slots hold the variables of one call: parameters refer to the
+  * variables passed by the caller, literal arguments and locals to
+  * variables owned by the frame. Frames are pooled by their
+  * BBFunctionInterpreter and reused once the call returns, so calling a
+  * function allocates nothing after the first calls.
+  *
+  * @author Konrad Sobczak
+  */
+class BBFrame {
+    final BBVariable[] slots;
+    private final BBVariable[] owned;
+    private BBVariable[] held;
+    private BBVariable[] passed;
+    final BBVariable returned = new BBVariable("0");
+    BBVariable returnValue;
+    BBFrame next;
+
+    /**
+      * Create a new frame
+      *
+      * @param size Number of slots of the function
+      */
+    BBFrame(int size){
+        this.slots = new BBVariable[size];
+        this.owned = new BBVariable[size];
+    }
+
+    /**
+      * Pass a variable of the caller by name
+      *
+      * @param slot Slot of the parameter
+      * @param variable Variable of the caller
+      */
+    void pass(int slot, BBVariable variable){
+        this.slots[slot] = variable;
+    }
+
+    /**
+      * Give an undefined slot a variable owned by the frame
+      *
+      * @param slot Local slot
+      * @param value Initial value, copied
+      * @return BBVariable now held by the slot
+      */
+    BBVariable define(int slot, BBVariable value){
+        if(this.owned[slot] == null){
+            this.owned[slot] = new BBVariable(value);
+        } else {
+            this.owned[slot].set(value);
+        }
+        this.slots[slot] = this.owned[slot];
+        return this.slots[slot];
+    }
+
+    /**
+      * Give an undefined slot a variable owned by the frame
+      *
+      * @param slot Local slot
+      * @param value Initial value, parsed
+      * @return BBVariable now held by the slot
+      */
+    BBVariable define(int slot, String value){
+        if(this.owned[slot] == null){
+            this.owned[slot] = new BBVariable(value);
+        } else {
+            this.owned[slot].setValue(value);
+        }
+        this.slots[slot] = this.owned[slot];
+        return this.slots[slot];
+    }
+
+    /**
+      * Check whether a variable belongs to this frame, as its locals and
+      * literal arguments do
+      *
+      * @param variable Variable to be checked
+      * @return true if the frame owns the variable
+      */
+    boolean owns(BBVariable variable){
+        for(BBVariable own : this.owned){
+            if(own == variable){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+      * Keep an argument of a tail call by name until restart
+      *
+      * @param slot Slot of the parameter
+      * @param variable Variable passed
+      */
+    void passNext(int slot, BBVariable variable){
+        prepare();
+        this.passed[slot] = variable;
+    }
+
+    /**
+      * Keep a copy of an argument of a tail call until restart
+      *
+      * @param slot Slot of the parameter
+      * @param value Value passed
+      */
+    void holdNext(int slot, BBVariable value){
+        prepare();
+        if(this.held[slot] == null){
+            this.held[slot] = new BBVariable(value);
+        } else {
+            this.held[slot].set(value);
+        }
+    }
+
+    /**
+      * Keep an argument of a tail call, parsed, until restart
+      *
+      * @param slot Slot of the parameter
+      * @param value Value passed
+      */
+    void holdNext(int slot, String value){
+        prepare();
+        if(this.held[slot] == null){
+            this.held[slot] = new BBVariable(value);
+        } else {
+            this.held[slot].setValue(value);
+        }
+    }
+
+    private void prepare(){
+        if(this.held == null){
+            this.held = new BBVariable[this.slots.length];
+            this.passed = new BBVariable[this.slots.length];
+        }
+    }
+
+    /**
+      * Start the call again with the arguments of a tail call, forgetting
+      * every local
+      *
+      * @param count Number of parameters
+      */
+    void restart(int count){
+        Arrays.fill(this.slots, null);
+        for(int slot = 0; slot < count; slot++){
+            if(this.passed[slot] != null){
+                this.slots[slot] = this.passed[slot];
+                this.passed[slot] = null;
+            } else {
+                define(slot, this.held[slot]);
+            }
+        }
+        this.returnValue = null;
+    }
+
+    /**
+      * Forget the variables of the finished call, keeping the owned ones
+      * for the next call
+      */
+    void release(){
+        Arrays.fill(this.slots, null);
+        this.returnValue = null;
+    }
+}
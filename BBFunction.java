@@ -1,57 +1,105 @@
 //package com.konradsobczak.bbeat;
 
-import java.util.HashMap;
-import java.util.List;
 import java.util.ArrayList;
-import java.util.ArrayDeque;
-import java.util.Arrays;
+import java.util.HashMap;
 
 /**
   * BBFunction - Functions in BareBones
   *
+  * The body is the range of already parsed statements between the func
+  * statement and its end. It is resolved into a BBFunctionInterpreter
+  * when the function is first called, so functions never called cost
+  * nothing beyond their definition. Each call runs in its own BBFrame,
+  * so functions may call themselves and each other. Results of pure
+  * functions are remembered in a BBMemo.
+  *
   * @author Konrad Sobczak
   */
 class BBFunction {
-    private final ArrayList<String> parameters;
-    private final int start;
-    private final int end;
-    private final BBFunctionInterpreter interpreter;
-    private String source = "";
+    private ArrayList<String> parameters;
+    private int start;
+    private int end;
+    private final BBParser parser;
+    private final BBScope scope;
+    private final BBVariable[] globals;
+    private final HashMap<String, BBFunction> functions;
+    private BBFunctionInterpreter interpreter;
+    private BBMemo memo;
     private String name;
 
-    public BBFunction(ArrayList<String> parameters, int start, int end, BBParser parser, String name){
+    public BBFunction(ArrayList<String> parameters, int start, int end, BBParser parser, String name, BBScope scope, BBVariable[] globals, HashMap<String, BBFunction> functions){
+        this.parser = parser;
+        this.name = name;
+        this.scope = scope;
+        this.globals = globals;
+        this.functions = functions;
+        define(parameters, start, end);
+    }
+
+    /**
+      * Give the function a new body, which call sites resolved to this
+      * function call from now on
+      *
+      * @param parameters Parameters of the function
+      * @param start Address of the first statement of the body
+      * @param end Address of the end closing the function
+      */
+    public void define(ArrayList<String> parameters, int start, int end){
         this.parameters = parameters; 
         this.start = start;
         this.end = end;
-        this.name = name;
-
-        for (int i = start; i < end; i++){
-            String statementText = parser.getStatement(i).getText();
-            this.source += statementText + ";\r\n";
-        }
-
-        this.interpreter = new BBFunctionInterpreter(this.source, new String[] {});
+        this.interpreter = null;
+        this.memo = null;
     }
 
-    public String execute(ArrayList<String> arguments, HashMap<String, BBVariable> globals){
-        if(arguments.size() != parameters.size()){
-            System.out.print("Error: function " + this.name + " expects " + parameters.size() + " arguments, but got " + arguments.size() + ".");
+    /**
+      * Get a frame for a call, to be given the arguments and then passed
+      * to call
+      *
+      * @param count Number of arguments
+      * @return BBFrame whose first slots are the parameters
+      */
+    public BBFrame enter(int count){
+        if(count != parameters.size()){
+            System.out.print("Error: function " + this.name + " expects " + parameters.size() + " arguments, but got " + count + ".");
             System.exit(1);
             return null;
-        } else {
-            HashMap<String, BBVariable> parsedArguments = new HashMap<String, BBVariable>();
-            for(int i = 0; i < arguments.size(); i++){
-                BBVariable value = null;
-                if(globals.get(arguments.get(i)) != null){
-                    value = globals.get(arguments.get(i));
-                } else {
-                    value = new BBVariable(arguments.get(i));
-                }
-                parsedArguments.put(parameters.get(i), value);
+        }
+        if(this.interpreter == null){
+            this.interpreter = new BBFunctionInterpreter(this.parser, this.start, this.end, this.parameters, this.scope, this.globals, this.functions, this.name);
+            if(this.interpreter.isPure(this.name)){
+                this.memo = new BBMemo(this.parameters.size(), BBMemo.CAPACITY);
             }
-            this.interpreter.setContext(globals, parsedArguments);
-            this.interpreter.executeSource();
-            return this.interpreter.returnValue;
         }
+        return this.interpreter.enter();
+    }
+
+    /**
+      * Run the function
+      *
+      * @param frame Frame from enter holding the arguments
+      * @return BBVariable returned value, valid until the next call, or null
+      */
+    public BBVariable call(BBFrame frame){
+        if(this.memo == null){
+            return this.interpreter.call(frame);
+        }
+        BBVariable value = this.memo.get(frame.slots);
+        if(value != null){
+            this.interpreter.release(frame);
+            return value;
+        }
+        Object key = this.memo.key();
+        value = this.interpreter.call(frame);
+        return value != null ? this.memo.put(key, value) : null;
+    }
+
+    /**
+      * Get the memo table of a pure function
+      *
+      * @return BBMemo or null if the function isn't pure or wasn't called
+      */
+    public BBMemo getMemo(){
+        return this.memo;
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,8 @@
 //package com.konradsobczak.bbeat;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.ArrayList;
-import java.util.ArrayDeque;
-import java.util.Arrays;
+import java.util.function.IntFunction;
 
 /**
   * BBFunctionInterpreter - executes BareBones function statements
@@ -12,41 +10,78 @@ import java.util.Arrays;
   * @author Konrad Sobczak
   */
 class BBFunctionInterpreter {
-    private HashMap<String, BBVariable> variables = new HashMap<String, BBVariable>();
-    private HashMap<String, BBFunction> functions = new HashMap<String, BBFunction>();
-    private ArrayDeque<BBLoopCondition> loops = new ArrayDeque<BBLoopCondition>();
+    private BBVariable[] variables;
+    private final BBVariable[] globals;
+    private final int size;
+    private final HashMap<String, BBFunction> functions;
     private final BBParser parser;
-    private boolean verbose;
-    private MathEval math = new MathEval();
-    public String returnValue = null;
-
-    private final List invalidNames = Arrays.asList(new String[]{"clear", "copy", "decr", "do", "end", "incr", "init", "not", "to", "while", 
-        "print", "+", "-", "*", "/", "^", "%", "^", "×", "·", "±", "E", "Euler", "LN2", "LN10", "LOG2E", "LOG10E", "PHI", "PI", "abs", "acos", 
-        "asin", "atan", "cbrt", "ceil", "cos", "cosh", "exp", "expm1", "floor", "log", "log10", "log1p", "max", "min", "random", "round", "roundHE", 
-        "signum", "sin", "sinh", "sqrt", "tan", "tanh", "toDegrees", "toRadians", "ulp"});
+    private final int start;
+    private final int end;
+    private final int parameterCount;
+    private final boolean[] tailCalls;
+    private final Bindings bindings = new Bindings();
+    private BBFrame frame;
+    private BBFrame free;
+    private final BBVariable result = new BBVariable("0");
+    private final IntFunction<BBVariable> lookup = this::getVariable;
+    private static final BBVariable ZERO = new BBVariable("0");
 
     /**
-      * Create a new BB Interpreter with given source code
+      * Create a new BB Interpreter with given function body, resolving its
+      * parameters and locals to slots of the function and every other name
+      * known to the main program to its global slot
       *
-      * @param source BareBones source code
-      * @param args Argumenst given to main function
+      * @param program Parsed program holding the function
+      * @param start Address of the first statement of the function body
+      * @param end Address of the end closing the function
+      * @param parameters Parameters of the function
+      * @param scope Global scope of the main program
+      * @param globals Global variables of the main program
+      * @param functions Functions of the program, which the function may call
+      * @param name Name of the function, whose calls in tail position are
+      *             run in the caller's frame
       */
-    public BBFunctionInterpreter(String source, String[] args){
-        this.parser = new BBParser(source);
-
-        if(Arrays.asList(args).contains("-v")){
-            this.verbose = true;
+    public BBFunctionInterpreter(BBParser program, int start, int end, ArrayList<String> parameters, BBScope scope, BBVariable[] globals, HashMap<String, BBFunction> functions, String name){
+        this.parser = new BBParser(program, start, end);
+        this.start = start;
+        this.end = end;
+        this.parameterCount = parameters.size();
+        this.globals = globals;
+        this.functions = functions;
+        BBScope functionScope = new BBScope(scope, parameters);
+        for(int address = start; address < end; address++){
+            functionScope.resolve(program.getStatement(address));
         }
-        for(String arg : args){
-            if(arg.charAt(0) != '-' && arg != args[args.length -1]){
-                String name = arg.substring(0, arg.lastIndexOf("=")).trim();
-                String value = arg.substring(arg.lastIndexOf("=") + 1, arg.length()).trim();
-                setVariable(name, new BBVariable(value));
+        this.size = functionScope.size();
+        this.tailCalls = new boolean[end - start];
+        for(int address = start; address < end; address++){
+            BBStatement statement = program.getStatement(address);
+            if(statement.getOpcode() == BBOpcode.RETURN && !statement.getArguments().isEmpty()
+                    && statement.getArguments().get(0).equals(name) && isLast(address + 1)){
+                this.tailCalls[address - start] = true;
             }
         }
-        if(this.verbose){
-            System.out.println("Initialised variables: " + variables);
+    }
+
+    /**
+      * Check whether nothing but the end of if/elif/else blocks runs from
+      * an address to the end of the function
+      *
+      * @param address Address following a statement
+      * @return true if the function finishes from there
+      */
+    private boolean isLast(int address){
+        while(address < this.end){
+            BBStatement statement = this.parser.getStatement(address);
+            int opener = this.parser.getBlockEnd(address);
+            if(statement.getOpcode() != BBOpcode.END || opener < this.start
+                    || this.parser.getStatement(opener).getOpcode() == BBOpcode.WHILE
+                    || this.parser.getBranch(address) <= address){
+                return false;
+            }
+            address = this.parser.getBranch(address);
         }
+        return address == this.end;
     }
 
     /**
@@ -58,12 +93,6 @@ class BBFunctionInterpreter {
         BBStatement statement;
         while((statement = this.parser.nextStatement()) != null) {
             success = success ? this.execute(statement) : false;
-            if(verbose && !statement.getOperation().equals("while") && !statement.getOperation().equals("end")){
-                System.out.println(variables);
-            }
-        }
-        if(verbose){
-            System.out.println("Finished with variables: " + variables);
         }
         return success;
     }
@@ -75,47 +104,56 @@ class BBFunctionInterpreter {
       */
     private boolean execute(BBStatement statement){
         boolean success = false;
-        switch (statement.getOperation().trim()){
-            case "print":
-                success = print(statement.getArguments());
+        switch (statement.getOpcode()){
+            case PRINT:
+                success = print(statement);
                 break;
-            case "incr":
-                success = incr(statement.getArguments());
+            case INCR:
+                success = incr(statement);
                 break;
-            case "decr":
-                success = decr(statement.getArguments());
+            case DECR:
+                success = decr(statement);
                 break;
-            case "copy":
-                success = copy(statement.getArguments());
+            case COPY:
+                success = copy(statement);
                 break;
-            case "set":
-                success = set(statement.getArguments());
+            case SET:
+                success = set(statement);
                 break;
-            case "clear":
-                success = clear(statement.getArguments());
+            case CLEAR:
+                success = clear(statement);
                 break;
-            case "init":
-                success = init(statement.getArguments());
+            case INIT:
+                success = init(statement);
                 break;
-            case "while":
-                success = startLoop(statement.getArguments());
+            case WHILE:
+                success = startLoop(statement);
                 break;
-            case "if":
-                success = startIf(statement.getArguments());
+            case IF:
+            case ELIF:
+                success = startIf(statement);
                 break;
-            case "return":
-                success = returnValue(statement.getArguments());
+            case ELSE:
+                success = true;
+                break;
+            case RETURN:
+                if(this.tailCalls[this.parser.currentAddress() - 1 - this.start]){
+                    success = tailCall(statement);
+                } else {
+                    success = returnValue(statement);
+                }
                 break;
-            case "end":
+            case END:
                 success = end();
                 break;
             default:
-                if(this.functions.get(statement.getOperation()) != null){
-                    this.functions.get(statement.getOperation()).execute(statement.getArguments(), this.variables);
+                BBFunction function = function(statement, statement.getOperation());
+                if(function != null){
+                    call(function, statement, 0);
                     success = true;
                 } else {
                     System.out.println("Error: no such operation " + statement.getOperation());
-                    System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
+                    System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
                     System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
                     System.exit(1);
                 }
@@ -124,105 +162,146 @@ class BBFunctionInterpreter {
     }
 
     /**
-      * Execute a function
+      * Get the value of an expression: a literal, a variable, a function
+      * call or a maths expression
       *
-      * @param String statement to be executed
-      * @return BBVariable value returned by the statement
+      * @param statement Statement holding the expression
+      * @param from Index of the first argument of the expression
+      * @return BBVariable value of the expression, to be copied before the
+      * next expression is evaluated
       */
-    private String execute(String statement){
-        if(statement.matches("(^true$)|(^false$)|(^\".*\"$)")){
-            return statement;
-        } else {
-            ArrayList<String> words = new ArrayList<String>(Arrays.asList(statement.split(" ")));
-            words.removeIf(a -> a.equals(""));
-            BBStatement parsedStatement = new BBStatement(words);
-            switch(parsedStatement.getOperation()){
-                case "eval":
-                    return evaluate(parsedStatement.getArguments());
-                case "return":
-                    return this.returnValue;
-                default:
-                    if(getVariable(parsedStatement.getOperation()) != null){
-                        return "" + getVariable(parsedStatement.getOperation()).getValue();
-                    } else if(this.functions.get(parsedStatement.getOperation()) != null){
-                        return this.functions.get(parsedStatement.getOperation()).execute(parsedStatement.getArguments(), this.variables);
-                    } else if(parsedStatement.getOperation().matches("(^[0-9]*\\.?[0-9]?)|(^\"([a-z]|[A-Z])*\"$)|(^'([a-z]|[A-Z])*'$)")) {
-                        return "" + new BBVariable(parsedStatement.getOperation()).getValue();
-                    } else {
-                        System.out.println("Error: Invalid statement");
-                        System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
-                        System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
-                        System.exit(1);
-                    }
-                    return null;
+    private BBVariable value(BBStatement statement, int from){
+        if(statement.isValue(from)){
+            return statement.getConstant(from);
+        }
+        ArrayList<String> args = statement.getArguments();
+        String operation = args.get(from);
+        if(operation.equals("true") || operation.equals("false") || operation.startsWith("\"")){
+            String expression = String.join(" ", args.subList(from, args.size()));
+            if(expression.matches("(^true$)|(^false$)|(^\".*\"$)")){
+                return from == args.size() - 1 ? statement.getConstant(from) : new BBVariable(expression);
             }
         }
+        if(operation.equals("eval")){
+            return evaluate(statement, from + 1);
+        } else if(operation.equals("return")){
+            return this.frame.returnValue;
+        }
+        BBVariable variable = getVariable(statement.getSlot(from));
+        BBFunction function;
+        if(variable != null){
+            return variable;
+        } else if((function = function(statement, operation)) != null){
+            return call(function, statement, from + 1);
+        } else if(operation.matches("(^[0-9]*\\.?[0-9]?)|(^\"([a-z]|[A-Z])*\"$)|(^'([a-z]|[A-Z])*'$)")) {
+            return statement.isConstant(from) ? statement.getConstant(from) : new BBVariable(operation);
+        } else {
+            System.out.println("Error: Invalid statement");
+            System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
+            System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
+            System.exit(1);
+        }
+        return null;
     }
 
     /**
-      * Evaluate maths expression
+      * Get the function a call names, caching it in the statement
       *
-      * @param args expression
-      * @return string value of expression
+      * @param statement Statement holding the call
+      * @param name Name of the function
+      * @return BBFunction or null if there is none
       */
-    private String evaluate(ArrayList<String> args){
-        for(int i = 0; i < args.size(); i++){
-            String arg = args.get(i);
-            if(!Arrays.asList("+", "-", "*", "/", "^", "%", "^", "×", "·", "±", "E", "Euler", "LN2", "LN10", "LOG2E", 
-                "LOG10E", "PHI", "PI", "abs", "acos", "asin", "atan", "cbrt", "ceil", "cos", "cosh", "exp", 
-                "expm1", "floor", "log", "log10", "log1p", "max", "min", "random", "round", "roundHE", 
-                "signum", "sin", "sinh", "sqrt", "tan", "tanh", "toDegrees", "toRadians", "ulp").contains(arg)){
-                String variableName = arg.replace("(", "").replace(")", "");
-                if(getVariable(variableName) != null){
-                    BBVariable variable = getVariable(variableName);
-                    String value = "" + variable.getValue();
-                    //System.out.println(value);
-                    args.set(i, arg.replace(variableName, value));
-                }
+    private BBFunction function(BBStatement statement, String name){
+        BBFunction function = statement.getFunction();
+        if(function == null){
+            function = this.functions.get(name);
+            statement.setFunction(function);
+        }
+        return function;
+    }
+
+    /**
+      * Call a function, passing variables by name and literals by value
+      *
+      * @param function Function to be called
+      * @param statement Statement holding the call
+      * @param from Index of the first argument
+      * @return BBVariable returned value or null
+      */
+    private BBVariable call(BBFunction function, BBStatement statement, int from){
+        ArrayList<String> args = statement.getArguments();
+        BBFrame frame = function.enter(args.size() - from);
+        for(int i = from; i < args.size(); i++){
+            BBVariable variable = getVariable(statement.getSlot(i));
+            if(variable != null){
+                frame.pass(i - from, variable);
+            } else if(statement.isConstant(i)){
+                frame.define(i - from, statement.getConstant(i));
+            } else {
+                frame.define(i - from, args.get(i));
             }
         }
-        double returnValue = 0;
+        return function.call(frame);
+    }
+
+    /**
+      * Evaluate maths expression, compiled when the statement was resolved,
+      * with the variables it names bound by slot. Expressions of whole
+      * numbers are evaluated exactly, the others as doubles
+      *
+      * @param statement Statement holding the expression
+      * @param from Index of the first word of the expression
+      * @return BBVariable result, valid until the next evaluation
+      */
+    private BBVariable evaluate(BBStatement statement, int from){
         try {
-            returnValue = math.evaluate(String.join(" ", args));
+            MathEval.Expression expression = statement.getExpression();
+            if(expression == null){
+                ArrayList<String> args = statement.getArguments();
+                expression = BBScope.compile(String.join(" ", args.subList(from, args.size())));
+            }
+            this.bindings.statement = statement;
+            if(!this.result.setExact(expression.evaluateExact(this.bindings))){
+                this.result.setDouble(expression.evaluate(this.bindings));
+            }
         } catch (Exception e){
             System.out.println("Error: Invalid math expression");
-            System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
+            System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
             System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
             System.exit(1);
         }
-        return String.valueOf(returnValue);
+        return this.result;
     }
 
     /**
-      * Print argument
-      * @param args name of variable to be printed
+      * Print arguments
+      * @param statement print statement holding names of variables and strings to be printed
       * @return true if successful
       */
-    private boolean print(ArrayList<String> args){
-        if(args.get(0).equals("eval")){
-            ArrayList<String> statement = new ArrayList<String>(args.subList(1, args.size()));
-            System.out.println(new BBVariable(evaluate(statement)));
-        } else if(args.get(0).contains("\"")){
-            if(args.size() == 1){
-                System.out.println(args.get(0).replace("\"", ""));
+    private boolean print(BBStatement statement){
+        ArrayList<String> args = statement.getArguments();
+        for(int i = 0; i < args.size(); i++){
+            String arg = args.get(i);
+            String text;
+            if(arg.equals("eval")){
+                System.out.println(evaluate(statement, i + 1));
+                return true;
+            } else if(arg.contains("\"")){
+                text = arg.replace("\"", "");
             } else {
-                System.out.print(args.get(0).replace("\"", "") + " ");
-                print(new ArrayList<String>(args.subList(1, args.size())));
-            }
-        } else {
-            BBVariable variable = getVariable(args.get(0));
-            if(variable != null){
-                if(args.size() == 1){
-                    System.out.println("" + variable.getValue());
-                } else {
-                    System.out.print(variable.getValue() + " ");
-                    print(new ArrayList<String>(args.subList(1, args.size())));
+                BBVariable variable = getVariable(statement.getSlot(i));
+                if(variable == null){
+                    System.out.print("Error: Variable not found");
+                    System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
+                    System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
+                    return false;
                 }
+                text = variable.getString();
+            }
+            if(i == args.size() - 1){
+                System.out.println(text);
             } else {
-                System.out.print("Error: Variable not found");
-                System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
-                System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
-                return false;
+                System.out.print(text + " ");
             }
         }
         return true;
@@ -230,40 +309,36 @@ class BBFunctionInterpreter {
     
     /**
       * Perform incr operation on argument
-      * @param args name of variable to be incremented
+      * @param statement incr statement naming the variable to be incremented
       * @return true if successful
       */
-    private boolean incr(ArrayList<String> args){
-        String arg = args.get(0);
-        return getVariable(arg).increment();
+    private boolean incr(BBStatement statement){
+        return getVariable(statement.getSlot(0)).increment();
     }
 
     /**
       * Perform decr operation on argument
-      * @param args name of variable to be decremented
+      * @param statement decr statement naming the variable to be decremented
       * @return true if successful
       */
-    private boolean decr(ArrayList<String> args){
-        String arg = args.get(0);
-        return getVariable(arg).decrement();
+    private boolean decr(BBStatement statement){
+        return getVariable(statement.getSlot(0)).decrement();
     }
 
     /**
       * Perform copy operation on two arguments
       *
-      * @param args name of variables to be copied
+      * @param statement copy statement naming the variables
       * @return true if successful
       */
-    private boolean copy(ArrayList<String> args){
-        String arg = args.get(0);
-        String target = args.get(2);
-        BBVariable variable = getVariable(arg);
+    private boolean copy(BBStatement statement){
+        BBVariable variable = getVariable(statement.getSlot(0));
         if(variable != null){
-            setVariable(target, new BBVariable(variable.getValue().toString()));
+            setVariable(statement.getSlot(2), statement.getArguments().get(2), variable);
             return true;
         } else {
             System.out.print("Error: Variable not found");
-            System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
+            System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
             System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
             return false;
         }
@@ -272,34 +347,34 @@ class BBFunctionInterpreter {
     /**
       * Perform clear operation on argument
       *
-      * @param args name of variable to be cleared
+      * @param statement clear statement naming the variable to be cleared
       * @return true if successful
       */
-    private boolean clear(ArrayList<String> args){
-        String arg = args.get(0);
-        BBVariable variable = getVariable(arg);
+    private boolean clear(BBStatement statement){
+        BBVariable variable = getVariable(statement.getSlot(0));
         if(variable != null){
             return variable.clear();
         } else {
-            setVariable(arg);
+            setVariable(statement.getSlot(0), statement.getArguments().get(0));
             return true;
         }
     }
 
     /**
       * Init variable with argument
-      * @param args name of variable to be incremented
+      * @param statement init statement naming the variable and its value
       * @return true if successful
       */
-    private boolean init(ArrayList<String> args){
+    private boolean init(BBStatement statement){
+        ArrayList<String> args = statement.getArguments();
         String arg = args.get(0);
-        BBVariable variable = getVariable(arg);
+        BBVariable variable = getVariable(statement.getSlot(0));
         if(variable == null){
-            setVariable(arg, new BBVariable(args.get(2)));
+            setVariable(statement.getSlot(0), arg, statement.isConstant(2) ? statement.getConstant(2) : new BBVariable(args.get(2)));
             return true;
         } else {
             System.out.println("Error: trying to initialise an existing variable " + arg);
-            System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
+            System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
             System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
             System.exit(1);
             return false;
@@ -308,19 +383,18 @@ class BBFunctionInterpreter {
 
     /**
       * Set the variable value equal to the expression value
-      * @param args name of variable to be incremented
+      * @param statement set statement naming the variable and the expression
       * @return true if successful
       */
-    private boolean set(ArrayList<String> args){
-        String arg = args.get(0);
-        BBVariable variable = getVariable(arg);
-        ArrayList<String> expression = new ArrayList<String>(args.subList(2, args.size()));
+    private boolean set(BBStatement statement){
+        String arg = statement.getArguments().get(0);
+        BBVariable variable = getVariable(statement.getSlot(0));
         if(variable != null){
-            setVariable(arg, new BBVariable(execute(String.join(" ", expression))));
+            setVariable(statement.getSlot(0), arg, value(statement, 2));
             return true;
         } else {
             System.out.println("Error: trying to access an inexisting variable " + arg);
-            System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
+            System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
             System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
             System.exit(1);
             return false;
@@ -329,156 +403,272 @@ class BBFunctionInterpreter {
 
     /**
       * Create a new BBLoopCondition
-      * @param args Arguments to the while loop
+      * @param statement The while statement
       * @return true if loop was successful
       */
-    private boolean startLoop(ArrayList<String> args){
-        BBVariable loopVarible = null;
-        if(getVariable(args.get(0)) != null){
-            loopVarible = getVariable(args.get(0));
-        } else {
-            loopVarible = new BBVariable(args.get(0));
-        }
-        BBVariable loopConstant = null;
-        if(getVariable(args.get(2)) != null){
-            loopConstant = getVariable(args.get(2));
-        } else {
-            loopConstant = new BBVariable(args.get(2));
+    private boolean startLoop(BBStatement statement){
+        ArrayList<String> args = statement.getArguments();
+        BBVariable loopVarible = getOperand(statement, 0);
+        BBVariable loopConstant = getOperand(statement, 2);
+        int address = this.parser.currentAddress() - 1;
+        if(statement.getSummary() != null && statement.getSummary().apply(this.lookup)){
+            this.parser.branch(this.parser.getBranch(address));
+            return true;
         }
-        BBLoopCondition loopCondition = new BBLoopCondition(loopVarible, loopConstant, this.parser.currentAddress() - 1, args.get(1));
+        BBLoopCondition loopCondition = new BBLoopCondition(loopVarible, loopConstant, address, args.get(1));
         if(loopCondition.finished()){
-            this.parser.branch(findBlockEnd(this.parser.currentAddress()) + 1);
-        } else {
-            loops.push(loopCondition);
+            this.parser.branch(this.parser.getBranch(address));
         }
         return true;
     }
 
     /**
       * Create a new BBIfCondition
-      * @param args Arguments to the if cont
+      * @param statement The if or elif statement
       * @return true if was successful
       */
-    private boolean startIf(ArrayList<String> args){
-        BBVariable conditionVarible = null;
-        if(getVariable(args.get(0)) != null){
-            conditionVarible = getVariable(args.get(0));
-        } else {
-            conditionVarible = new BBVariable(args.get(0));
-        }
-        BBVariable conditionConstant = null;
-        if(getVariable(args.get(2)) != null){
-            conditionConstant = getVariable(args.get(2));
-        } else {
-            conditionConstant = new BBVariable(args.get(2));
-        }
-        BBIfCondition ifCondition = new BBIfCondition(conditionVarible, conditionConstant, this.parser.currentAddress() - 1, args.get(1));
-        if(!ifCondition.finished()){
-            int address = this.parser.currentAddress();
-            while(address < findBlockEnd(this.parser.currentAddress())){
-                execute(this.parser.getStatement(address));
-                address++;
-            }
-        } 
-        this.parser.branch(findBlockEnd(this.parser.currentAddress()) + 1);
-        BBStatement nextStatement = this.parser.getStatement(this.parser.currentAddress());
-        if(nextStatement.getOperation().equals("elif") || nextStatement.getOperation().equals("else")){
-            if(nextStatement.getOperation().equals("elif")){
-                return startIf(nextStatement.getArguments());    
-            } else if (nextStatement.getOperation().equals("else")){
-                if(ifCondition.finished()){
-                    int address = this.parser.currentAddress() + 1;
-                    while(address < findBlockEnd(this.parser.currentAddress() + 1)){
-                        execute(this.parser.getStatement(address));
-                        address++;
-                    }
-                }
-                this.parser.branch(findBlockEnd(this.parser.currentAddress() + 1) + 1);
-            }
+    private boolean startIf(BBStatement statement){
+        ArrayList<String> args = statement.getArguments();
+        BBVariable conditionVarible = getOperand(statement, 0);
+        BBVariable conditionConstant = getOperand(statement, 2);
+        int address = this.parser.currentAddress() - 1;
+        BBIfCondition ifCondition = new BBIfCondition(conditionVarible, conditionConstant, address, args.get(1));
+        if(ifCondition.finished()){
+            this.parser.branch(this.parser.getBranch(address));
         }
         return true;
     }
 
     /**
-      * Check whether a loop ended
+      * Close a block, jumping back to the loop condition or past the
+      * rest of an if/elif/else chain
       *
       * @return true 
       */
     private boolean end() {
-        if(!loops.isEmpty()){
-            BBLoopCondition loopCondition = loops.pop();
-            if(!loopCondition.finished()){
-                this.parser.branch(loopCondition.getBranch());
-            }
+        int branch = this.parser.getBranch(this.parser.currentAddress() - 1);
+        if(branch != -1){
+            this.parser.branch(branch);
         }
         return true;
     }
 
-    /**
-      * Find corresponding end statement
-      @param address Address of while
-      @return Address of end
-      */
-    private int findBlockEnd(int address){
-        ArrayList<BBStatement> statements = this.parser.getStatements();
-        int depth = 0;
-        for(int i = address - 1; i < statements.size(); i++){
-            String operation = statements.get(i).getOperation();
-            if(operation.equals("while") || operation.equals("func") || operation.equals("if")  || operation.equals("elif") || operation.equals("else")){
-                depth++;
-            } else if (operation.equals("end")){
-                depth--;
-                if(depth == 0){
-                    return i;
+    private void setVariable(int slot, String name, BBVariable value){
+        if(BBInterpreter.isValidName(name)){
+            if(!BBScope.isGlobal(slot)){
+                if(this.variables[slot] == null){
+                    this.frame.define(slot, value);
+                } else {
+                    this.variables[slot].set(value);
                 }
-            }
-        }
-        return -1;
-    }
-
-    private void setVariable(String name, BBVariable value){
-        if(!invalidNames.contains(name) && !(name.length() > 1 && Character.isUpperCase(name.charAt(0)))){
-            if(variables.get(name) == null){
-                variables.put(name, value);
+            } else if(this.globals[BBScope.globalIndex(slot)] == null){
+                this.globals[BBScope.globalIndex(slot)] = new BBVariable(value);
             } else {
-                variables.get(name).setValue("" + value.getValue());
+                this.globals[BBScope.globalIndex(slot)].set(value);
             }
         } else {
             System.out.println("Error: Invalid name of variable: " + name);
-            System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
+            System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
             System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
             System.exit(1);
         }
     }
 
-    private void setVariable(String name){
-        setVariable(name, new BBVariable("0"));
+    private void setVariable(int slot, String name){
+        setVariable(slot, name, ZERO);
+    }
+
+    private BBVariable getVariable(int slot){
+        if(slot == BBScope.NONE){
+            return null;
+        }
+        return BBScope.isGlobal(slot) ? this.globals[BBScope.globalIndex(slot)] : this.variables[slot];
     }
 
-    private BBVariable getVariable(String name){
-        return variables.get(name);
+    /**
+      * Get the value of a statement argument, either its literal value or
+      * the variable it names
+      *
+      * @param statement Statement holding the argument
+      * @param index Index of the argument
+      * @return BBVariable value of the argument
+      */
+    private BBVariable getOperand(BBStatement statement, int index){
+        if(statement.isConstant(index)){
+            return statement.getConstant(index);
+        }
+        BBVariable variable = getVariable(statement.getSlot(index));
+        return variable != null ? variable : new BBVariable(statement.getArguments().get(index));
     }
 
     /**
       * Set the return value of the function
       *
-      * @param args ArrayList<String> of arguments
+      * @param statement return statement holding the expression
       * @return true (always)
       */
-    private boolean returnValue(ArrayList<String> args){
-        this.returnValue = "" + new BBVariable(execute(String.join(" ", args))).getValue();
+    private boolean returnValue(BBStatement statement){
+        this.frame.returned.set(value(statement, 0));
+        this.frame.returnValue = this.frame.returned;
         return true;
     }
 
     /**
-      * Set a context for the function execution
+      * Call the function itself from tail position by starting the current
+      * call again. Variables of the caller are still passed by name, while
+      * locals of the frame, which the call outlives, are passed as copies
+      *
+      * @param statement return statement holding the call
+      * @return true (always)
+      */
+    private boolean tailCall(BBStatement statement){
+        ArrayList<String> args = statement.getArguments();
+        if(args.size() - 1 != this.parameterCount){
+            return returnValue(statement);
+        }
+        for(int i = 1; i < args.size(); i++){
+            BBVariable variable = getVariable(statement.getSlot(i));
+            if(variable != null && !this.frame.owns(variable)){
+                this.frame.passNext(i - 1, variable);
+            } else if(variable != null){
+                this.frame.holdNext(i - 1, variable);
+            } else if(statement.isConstant(i)){
+                this.frame.holdNext(i - 1, statement.getConstant(i));
+            } else {
+                this.frame.holdNext(i - 1, args.get(i));
+            }
+        }
+        this.frame.restart(this.parameterCount);
+        this.parser.reset();
+        return true;
+    }
+
+    /**
+      * Get a frame for a call, reusing a released one if there is any
+      *
+      * @return BBFrame with every slot undefined
+      */
+    public BBFrame enter(){
+        BBFrame frame = this.free;
+        if(frame == null){
+            return new BBFrame(this.size);
+        }
+        this.free = frame.next;
+        return frame;
+    }
+
+    /**
+      * Run the function in a frame, then return to the frame and statement
+      * of the call it interrupted, if the function called itself
       *
-      * @param globals HashMap<String, BBVariable> of global variables
-      * @param arguments HashMap<String, BBVariable> of arguments given to the function
+      * @param frame Frame from enter holding the arguments
+      * @return BBVariable returned value, valid until the frame is reused,
+      * or null
       */
-    public void setContext(HashMap<String, BBVariable> globals, HashMap<String, BBVariable> arguments){
-        this.variables.putAll(globals);
-        this.variables.putAll(arguments);
-        this.returnValue = null;
+    public BBVariable call(BBFrame frame){
+        BBFrame caller = this.frame;
+        int address = this.parser.currentAddress();
+        this.frame = frame;
+        this.variables = frame.slots;
+        this.parser.reset();
+        executeSource();
+        BBVariable value = frame.returnValue;
+        this.frame = caller;
+        this.variables = caller != null ? caller.slots : null;
+        this.parser.branch(address);
+        release(frame);
+        return value;
+    }
+
+    /**
+      * Return a frame to the pool
+      *
+      * @param frame Frame of a finished or skipped call
+      */
+    public void release(BBFrame frame){
+        frame.release();
+        frame.next = this.free;
+        this.free = frame;
+    }
+
+    /**
+      * Check whether the function's result depends only on its arguments,
+      * so it can be memoised. A pure function reads and writes no global,
+      * doesn't change its parameters, prints nothing, draws no random
+      * numbers and calls no function other than itself
+      *
+      * @param name Name of the function
+      * @return true if the function is pure
+      */
+    public boolean isPure(String name){
+        for(int address = this.start; address < this.end; address++){
+            BBStatement statement = this.parser.getStatement(address);
+            ArrayList<String> args = statement.getArguments();
+            for(int i = 0; i < args.size(); i++){
+                if(statement.isVariable(i) && (BBScope.isGlobal(statement.getSlot(i)) || args.get(i).contains("random"))){
+                    return false;
+                }
+            }
+            int written = BBScope.NONE;
+            String callee = null;
+            switch(statement.getOpcode()){
+                case PRINT:
+                case FUNC:
+                    return false;
+                case INCR:
+                case DECR:
+                case CLEAR:
+                case INIT:
+                    written = args.isEmpty() ? BBScope.NONE : statement.getSlot(0);
+                    break;
+                case SET:
+                    written = args.isEmpty() ? BBScope.NONE : statement.getSlot(0);
+                    if(args.size() > 2 && !args.get(2).equals("eval") && statement.getSlot(2) == BBScope.NONE && !statement.isConstant(2)){
+                        callee = args.get(2);
+                    }
+                    break;
+                case COPY:
+                    written = args.size() > 2 ? statement.getSlot(2) : BBScope.NONE;
+                    break;
+                case RETURN:
+                    if(!args.isEmpty() && !args.get(0).equals("eval") && statement.getSlot(0) == BBScope.NONE && !statement.isConstant(0)){
+                        callee = args.get(0);
+                    }
+                    break;
+                case CALL:
+                    callee = statement.getOperation();
+                    break;
+                default:
+                    break;
+            }
+            if((written != BBScope.NONE && written < this.parameterCount) || (callee != null && !callee.equals(name))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+      * Variables named by the maths expression being evaluated
+      */
+    private class Bindings implements MathEval.Bindings {
+        private BBStatement statement;
+
+        public boolean isBound(int index){
+            BBVariable variable = getVariable(this.statement.getExpressionSlot(index));
+            return variable != null && variable.getTag() <= BBVariable.DOUBLE;
+        }
+
+        public double getValue(int index){
+            return getVariable(this.statement.getExpressionSlot(index)).getDouble();
+        }
+
+        public boolean isIntegral(int index){
+            return getVariable(this.statement.getExpressionSlot(index)).getTag() == BBVariable.INT;
+        }
+
+        public long getLong(int index){
+            return getVariable(this.statement.getExpressionSlot(index)).getLong();
+        }
     }
-}
\ No newline at end of file
+}
@@ -33,9 +33,9 @@ public class BBIfCondition {
       */
     public boolean finished(){
         if(this.type){
-            return this.conditionVariable.getValue() == this.conditionConstant.getValue();
+            return this.conditionVariable.sameValue(this.conditionConstant);
         } else {
-            return this.conditionVariable.getValue() != this.conditionConstant.getValue();
+            return !this.conditionVariable.sameValue(this.conditionConstant);
         }
     }
 
@@ -1,9 +1,10 @@
 //package com.konradsobczak.bbeat;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ArrayList;
-import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.function.IntFunction;
 
 /**
   * BBInterpreter - executes BareBones statements
@@ -11,15 +12,18 @@ import java.util.Arrays;
   * @author Konrad Sobczak
   */
 
-public class BBInterpreter {
-    private HashMap<String, BBVariable> variables = new HashMap<String, BBVariable>();
+public class BBInterpreter implements BBEngine {
+    private final BBScope scope = new BBScope();
+    private final BBVariable[] variables;
     private HashMap<String, BBFunction> functions = new HashMap<String, BBFunction>();
-    private ArrayDeque<BBLoopCondition> loops = new ArrayDeque<BBLoopCondition>();
     private final BBParser parser;
     private boolean verbose;
-    private MathEval math = new MathEval();
+    private final Bindings bindings = new Bindings();
+    private final BBVariable result = new BBVariable("0");
+    private final IntFunction<BBVariable> lookup = this::getVariable;
+    private static final BBVariable ZERO = new BBVariable("0");
 
-    private final List invalidNames = Arrays.asList(new String[]{"clear", "copy", "decr", "do", "end", "incr", "init", "not", "to", "while", 
+    private static final List invalidNames = Arrays.asList(new String[]{"clear", "copy", "decr", "do", "end", "incr", "init", "not", "to", "while", 
         "print",  "func", "if", "+", "-", "*", "/", "^", "%", "^", "×", "·", "±", "E", "Euler", "LN2", "LN10", "LOG2E", "LOG10E", "PHI", "PI", "abs", "acos", 
         "asin", "atan", "cbrt", "ceil", "cos", "cosh", "exp", "expm1", "floor", "log", "log10", "log1p", "max", "min", "random", "round", "roundHE", 
         "signum", "sin", "sinh", "sqrt", "tan", "tanh", "toDegrees", "toRadians", "ulp"});
@@ -30,21 +34,44 @@ public class BBInterpreter {
       * @param source BareBones source code
       * @param args Argumenst given to main function
       */
-    public BBInterpreter(String source, String[] args){
-        this.parser = new BBParser(source);
+    public BBInterpreter(CharSequence source, String[] args){
+        this(new BBParser(source), args);
+    }
+
+    /**
+      * Create a new BB Interpreter with an already parsed program
+      *
+      * @param parser Parsed BareBones program
+      * @param args Argumenst given to main function
+      */
+    public BBInterpreter(BBParser parser, String[] args){
+        this.parser = parser;
 
         if(Arrays.asList(args).contains("-v")){
             this.verbose = true;
         }
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<String> values = new ArrayList<String>();
         for(String arg : args){
             if(arg.charAt(0) != '-' && arg != args[args.length -1]){
-                String name = arg.substring(0, arg.lastIndexOf("=")).trim();
-                String value = arg.substring(arg.lastIndexOf("=") + 1, arg.length()).trim();
-                setVariable(name, new BBVariable(value));
+                names.add(arg.substring(0, arg.lastIndexOf("=")).trim());
+                values.add(arg.substring(arg.lastIndexOf("=") + 1, arg.length()).trim());
+                this.scope.slot(names.get(names.size() - 1));
             }
         }
+        ArrayList<BBStatement> statements = parser.getStatements();
+        for(int address = 0; address < statements.size(); address++){
+            this.scope.resolve(statements.get(address));
+            if(statements.get(address).getOpcode() == BBOpcode.FUNC){
+                address = parser.getBranch(address) - 1;
+            }
+        }
+        this.variables = new BBVariable[this.scope.size()];
+        for(int i = 0; i < names.size(); i++){
+            setVariable(this.scope.slot(names.get(i)), names.get(i), new BBVariable(values.get(i)));
+        }
         if(this.verbose){
-            System.out.println("Initialised variables: " + variables);
+            System.out.println("Initialised variables: " + visibleVariables());
         }
     }
 
@@ -57,12 +84,17 @@ public class BBInterpreter {
         BBStatement statement;
         while((statement = this.parser.nextStatement()) != null) {
             success = success ? this.execute(statement) : false;
-            if(verbose && !statement.getOperation().equals("while") && !statement.getOperation().equals("end")){
-                System.out.println(variables);
+            if(verbose && statement.getOpcode() != BBOpcode.WHILE && statement.getOpcode() != BBOpcode.END){
+                System.out.println(visibleVariables());
             }
         }
         if(verbose){
-            System.out.println("Finished with variables: " + variables);
+            System.out.println("Finished with variables: " + visibleVariables());
+            for(Map.Entry<String, BBFunction> function : this.functions.entrySet()){
+                if(function.getValue().getMemo() != null){
+                    System.out.println("Memoised function " + function.getKey() + ": " + function.getValue().getMemo());
+                }
+            }
         }
         return success;
     }
@@ -74,47 +106,52 @@ public class BBInterpreter {
       */
     private boolean execute(BBStatement statement){
         boolean success = false;
-        switch (statement.getOperation().trim()){
-            case "print":
-                success = print(statement.getArguments());
+        switch (statement.getOpcode()){
+            case PRINT:
+                success = print(statement);
+                break;
+            case INCR:
+                success = incr(statement);
                 break;
-            case "incr":
-                success = incr(statement.getArguments());
+            case DECR:
+                success = decr(statement);
                 break;
-            case "decr":
-                success = decr(statement.getArguments());
+            case COPY:
+                success = copy(statement);
                 break;
-            case "copy":
-                success = copy(statement.getArguments());
+            case SET:
+                success = set(statement);
                 break;
-            case "set":
-                success = set(statement.getArguments());
+            case CLEAR:
+                success = clear(statement);
                 break;
-            case "clear":
-                success = clear(statement.getArguments());
+            case INIT:
+                success = init(statement);
                 break;
-            case "init":
-                success = init(statement.getArguments());
+            case WHILE:
+                success = startLoop(statement);
                 break;
-            case "while":
-                success = startLoop(statement.getArguments());
+            case IF:
+            case ELIF:
+                success = startIf(statement);
                 break;
-            case "if":
-                success = startIf(statement.getArguments());
+            case ELSE:
+                success = true;
                 break;
-            case "func":
+            case FUNC:
                 success = createFunc(statement.getArguments());
                 break;
-            case "end":
+            case END:
                 success = end();
                 break;
             default:
-                if(this.functions.get(statement.getOperation()) != null){
-                    this.functions.get(statement.getOperation()).execute(statement.getArguments(), this.variables);
+                BBFunction function = function(statement, statement.getOperation());
+                if(function != null){
+                    call(function, statement, 0);
                     success = true;
                 } else {
                     System.out.println("Error: no such operation " + statement.getOperation());
-                    System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
+                    System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
                     System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
                     System.exit(1);
                 }
@@ -123,103 +160,144 @@ public class BBInterpreter {
     }
 
     /**
-      * Execute a function
+      * Get the value of an expression: a literal, a variable, a function
+      * call or a maths expression
       *
-      * @param String statement to be executed
-      * @return BBVariable value returned by the statement
+      * @param statement Statement holding the expression
+      * @param from Index of the first argument of the expression
+      * @return BBVariable value of the expression, to be copied before the
+      * next expression is evaluated
       */
-    private String execute(String statement){
-        if(statement.matches("(^true$)|(^false$)|(^\".*\"$)")){
-            return statement;
-        } else {
-            ArrayList<String> words = new ArrayList<String>(Arrays.asList(statement.split(" ")));
-            words.removeIf(a -> a.equals(""));
-            BBStatement parsedStatement = new BBStatement(words);
-            switch(parsedStatement.getOperation()){
-                case "eval":
-                    return evaluate(parsedStatement.getArguments());
-                default:
-                    if(getVariable(parsedStatement.getOperation()) != null){
-                        return "" + getVariable(parsedStatement.getOperation()).getValue();
-                    } else if(this.functions.get(parsedStatement.getOperation()) != null){
-                        return this.functions.get(parsedStatement.getOperation()).execute(parsedStatement.getArguments(), this.variables);
-                    } else if(parsedStatement.getOperation().matches("(^[0-9]*\\.?[0-9]?)|(^\"([a-z]|[A-Z])*\"$)|(^'([a-z]|[A-Z])*'$)")) {
-                        return "" + new BBVariable(parsedStatement.getOperation()).getValue();
-                    } else {
-                        System.out.println("Error: Invalid statement");
-                        System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
-                        System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
-                        System.exit(1);
-                    }
-                    return null;
+    private BBVariable value(BBStatement statement, int from){
+        if(statement.isValue(from)){
+            return statement.getConstant(from);
+        }
+        ArrayList<String> args = statement.getArguments();
+        String operation = args.get(from);
+        if(operation.equals("true") || operation.equals("false") || operation.startsWith("\"")){
+            String expression = String.join(" ", args.subList(from, args.size()));
+            if(expression.matches("(^true$)|(^false$)|(^\".*\"$)")){
+                return from == args.size() - 1 ? statement.getConstant(from) : new BBVariable(expression);
             }
         }
+        if(operation.equals("eval")){
+            return evaluate(statement, from + 1);
+        }
+        BBVariable variable = getVariable(statement.getSlot(from));
+        BBFunction function;
+        if(variable != null){
+            return variable;
+        } else if((function = function(statement, operation)) != null){
+            return call(function, statement, from + 1);
+        } else if(operation.matches("(^[0-9]*\\.?[0-9]?)|(^\"([a-z]|[A-Z])*\"$)|(^'([a-z]|[A-Z])*'$)")) {
+            return statement.isConstant(from) ? statement.getConstant(from) : new BBVariable(operation);
+        } else {
+            System.out.println("Error: Invalid statement");
+            System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
+            System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
+            System.exit(1);
+        }
+        return null;
     }
 
     /**
-      * Evaluate maths expression
+      * Get the function a call names, caching it in the statement
       *
-      * @param args expression
-      * @return string value of expression
+      * @param statement Statement holding the call
+      * @param name Name of the function
+      * @return BBFunction or null if there is none
       */
-    private String evaluate(ArrayList<String> args){
-        for(int i = 0; i < args.size(); i++){
-            String arg = args.get(i);
-            if(!Arrays.asList("+", "-", "*", "/", "^", "%", "^", "×", "·", "±", "E", "Euler", "LN2", "LN10", "LOG2E", 
-                "LOG10E", "PHI", "PI", "abs", "acos", "asin", "atan", "cbrt", "ceil", "cos", "cosh", "exp", 
-                "expm1", "floor", "log", "log10", "log1p", "max", "min", "random", "round", "roundHE", 
-                "signum", "sin", "sinh", "sqrt", "tan", "tanh", "toDegrees", "toRadians", "ulp").contains(arg)){
-                String variableName = arg.replace("(", "").replace(")", "");
-                if(getVariable(variableName) != null){
-                    BBVariable variable = getVariable(variableName);
-                    String value = "" + variable.getValue();
-                    //System.out.println(value);
-                    args.set(i, arg.replace(variableName, value));
-                }
+    private BBFunction function(BBStatement statement, String name){
+        BBFunction function = statement.getFunction();
+        if(function == null){
+            function = this.functions.get(name);
+            statement.setFunction(function);
+        }
+        return function;
+    }
+
+    /**
+      * Call a function, passing variables by name and literals by value
+      *
+      * @param function Function to be called
+      * @param statement Statement holding the call
+      * @param from Index of the first argument
+      * @return BBVariable returned value or null
+      */
+    private BBVariable call(BBFunction function, BBStatement statement, int from){
+        ArrayList<String> args = statement.getArguments();
+        BBFrame frame = function.enter(args.size() - from);
+        for(int i = from; i < args.size(); i++){
+            BBVariable variable = getVariable(statement.getSlot(i));
+            if(variable != null){
+                frame.pass(i - from, variable);
+            } else if(statement.isConstant(i)){
+                frame.define(i - from, statement.getConstant(i));
+            } else {
+                frame.define(i - from, args.get(i));
             }
         }
-        double returnValue = 0;
+        return function.call(frame);
+    }
+
+    /**
+      * Evaluate maths expression, compiled when the statement was resolved,
+      * with the variables it names bound by slot. Expressions of whole
+      * numbers are evaluated exactly, the others as doubles
+      *
+      * @param statement Statement holding the expression
+      * @param from Index of the first word of the expression
+      * @return BBVariable result, valid until the next evaluation
+      */
+    private BBVariable evaluate(BBStatement statement, int from){
         try {
-            returnValue = math.evaluate(String.join(" ", args));
+            MathEval.Expression expression = statement.getExpression();
+            if(expression == null){
+                ArrayList<String> args = statement.getArguments();
+                expression = BBScope.compile(String.join(" ", args.subList(from, args.size())));
+            }
+            this.bindings.statement = statement;
+            if(!this.result.setExact(expression.evaluateExact(this.bindings))){
+                this.result.setDouble(expression.evaluate(this.bindings));
+            }
         } catch (Exception e){
             System.out.println("Error: Invalid math expression");
-            System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
+            System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
             System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
             System.exit(1);
         }
-        return String.valueOf(returnValue);
+        return this.result;
     }
 
     /**
-      * Print argument
-      * @param args name of variable to be printed
+      * Print arguments
+      * @param statement print statement holding names of variables and strings to be printed
       * @return true if successful
       */
-    private boolean print(ArrayList<String> args){
-        if(args.get(0).equals("eval")){
-            ArrayList<String> statement = new ArrayList<String>(args.subList(1, args.size()));
-            System.out.println(new BBVariable(evaluate(statement)));
-        } else if(args.get(0).contains("\"")){
-            if(args.size() == 1){
-                System.out.println(args.get(0).replace("\"", ""));
+    private boolean print(BBStatement statement){
+        ArrayList<String> args = statement.getArguments();
+        for(int i = 0; i < args.size(); i++){
+            String arg = args.get(i);
+            String text;
+            if(arg.equals("eval")){
+                System.out.println(evaluate(statement, i + 1));
+                return true;
+            } else if(arg.contains("\"")){
+                text = arg.replace("\"", "");
             } else {
-                System.out.print(args.get(0).replace("\"", "") + " ");
-                print(new ArrayList<String>(args.subList(1, args.size())));
-            }
-        } else {
-            BBVariable variable = getVariable(args.get(0));
-            if(variable != null){
-                if(args.size() == 1){
-                    System.out.println("" + variable.getValue());
-                } else {
-                    System.out.print(variable.getValue() + " ");
-                    print(new ArrayList<String>(args.subList(1, args.size())));
+                BBVariable variable = getVariable(statement.getSlot(i));
+                if(variable == null){
+                    System.out.print("Error: Variable not found");
+                    System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
+                    System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
+                    return false;
                 }
+                text = variable.getString();
+            }
+            if(i == args.size() - 1){
+                System.out.println(text);
             } else {
-                System.out.print("Error: Variable not found");
-                System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
-                System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
-                return false;
+                System.out.print(text + " ");
             }
         }
         return true;
@@ -227,40 +305,36 @@ public class BBInterpreter {
     
     /**
       * Perform incr operation on argument
-      * @param args name of variable to be incremented
+      * @param statement incr statement naming the variable to be incremented
       * @return true if successful
       */
-    private boolean incr(ArrayList<String> args){
-        String arg = args.get(0);
-        return getVariable(arg).increment();
+    private boolean incr(BBStatement statement){
+        return getVariable(statement.getSlot(0)).increment();
     }
 
     /**
       * Perform decr operation on argument
-      * @param args name of variable to be decremented
+      * @param statement decr statement naming the variable to be decremented
       * @return true if successful
       */
-    private boolean decr(ArrayList<String> args){
-        String arg = args.get(0);
-        return getVariable(arg).decrement();
+    private boolean decr(BBStatement statement){
+        return getVariable(statement.getSlot(0)).decrement();
     }
 
     /**
       * Perform copy operation on two arguments
       *
-      * @param args name of variables to be copied
+      * @param statement copy statement naming the variables
       * @return true if successful
       */
-    private boolean copy(ArrayList<String> args){
-        String arg = args.get(0);
-        String target = args.get(2);
-        BBVariable variable = getVariable(arg);
+    private boolean copy(BBStatement statement){
+        BBVariable variable = getVariable(statement.getSlot(0));
         if(variable != null){
-            setVariable(target, new BBVariable(variable.getValue().toString()));
+            setVariable(statement.getSlot(2), statement.getArguments().get(2), variable);
             return true;
         } else {
             System.out.print("Error: Variable not found");
-            System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
+            System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
             System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
             return false;
         }
@@ -269,34 +343,34 @@ public class BBInterpreter {
     /**
       * Perform clear operation on argument
       *
-      * @param args name of variable to be cleared
+      * @param statement clear statement naming the variable to be cleared
       * @return true if successful
       */
-    private boolean clear(ArrayList<String> args){
-        String arg = args.get(0);
-        BBVariable variable = getVariable(arg);
+    private boolean clear(BBStatement statement){
+        BBVariable variable = getVariable(statement.getSlot(0));
         if(variable != null){
             return variable.clear();
         } else {
-            setVariable(arg);
+            setVariable(statement.getSlot(0), statement.getArguments().get(0));
             return true;
         }
     }
 
     /**
       * Init variable with argument
-      * @param args name of variable to be incremented
+      * @param statement init statement naming the variable and its value
       * @return true if successful
       */
-    private boolean init(ArrayList<String> args){
+    private boolean init(BBStatement statement){
+        ArrayList<String> args = statement.getArguments();
         String arg = args.get(0);
-        BBVariable variable = getVariable(arg);
+        BBVariable variable = getVariable(statement.getSlot(0));
         if(variable == null){
-            setVariable(arg, new BBVariable(args.get(2)));
+            setVariable(statement.getSlot(0), arg, statement.isConstant(2) ? statement.getConstant(2) : new BBVariable(args.get(2)));
             return true;
         } else {
             System.out.println("Error: trying to initialise an existing variable " + arg);
-            System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
+            System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
             System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
             System.exit(1);
             return false;
@@ -305,19 +379,18 @@ public class BBInterpreter {
 
     /**
       * Set the variable value equal to the expression value
-      * @param args name of variable to be incremented
+      * @param statement set statement naming the variable and the expression
       * @return true if successful
       */
-    private boolean set(ArrayList<String> args){
-        String arg = args.get(0);
-        BBVariable variable = getVariable(arg);
-        ArrayList<String> expression = new ArrayList<String>(args.subList(2, args.size()));
+    private boolean set(BBStatement statement){
+        String arg = statement.getArguments().get(0);
+        BBVariable variable = getVariable(statement.getSlot(0));
         if(variable != null){
-            setVariable(arg, new BBVariable(execute(String.join(" ", expression))));
+            setVariable(statement.getSlot(0), arg, value(statement, 2));
             return true;
         } else {
             System.out.println("Error: trying to access an inexisting variable " + arg);
-            System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
+            System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
             System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
             System.exit(1);
             return false;
@@ -326,74 +399,38 @@ public class BBInterpreter {
 
     /**
       * Create a new BBLoopCondition
-      * @param args Arguments to the while loop
+      * @param statement The while statement
       * @return true if loop was successful
       */
-    private boolean startLoop(ArrayList<String> args){
-        BBVariable loopVarible = null;
-        if(getVariable(args.get(0)) != null){
-            loopVarible = getVariable(args.get(0));
-        } else {
-            loopVarible = new BBVariable(args.get(0));
-        }
-        BBVariable loopConstant = null;
-        if(getVariable(args.get(2)) != null){
-            loopConstant = getVariable(args.get(2));
-        } else {
-            loopConstant = new BBVariable(args.get(2));
+    private boolean startLoop(BBStatement statement){
+        ArrayList<String> args = statement.getArguments();
+        BBVariable loopVarible = getOperand(statement, 0);
+        BBVariable loopConstant = getOperand(statement, 2);
+        int address = this.parser.currentAddress() - 1;
+        if(statement.getSummary() != null && statement.getSummary().apply(this.lookup)){
+            this.parser.branch(this.parser.getBranch(address));
+            return true;
         }
-        BBLoopCondition loopCondition = new BBLoopCondition(loopVarible, loopConstant, this.parser.currentAddress() - 1, args.get(1));
+        BBLoopCondition loopCondition = new BBLoopCondition(loopVarible, loopConstant, address, args.get(1));
         if(loopCondition.finished()){
-            this.parser.branch(findBlockEnd(this.parser.currentAddress()) + 1);
-        } else {
-            loops.push(loopCondition);
+            this.parser.branch(this.parser.getBranch(address));
         }
         return true;
     }
 
     /**
       * Create a new BBIfCondition
-      * @param args Arguments to the if cont
+      * @param statement The if or elif statement
       * @return true if was successful
       */
-    private boolean startIf(ArrayList<String> args){
-        BBVariable conditionVarible = null;
-        if(getVariable(args.get(0)) != null){
-            conditionVarible = getVariable(args.get(0));
-        } else {
-            conditionVarible = new BBVariable(args.get(0));
-        }
-        BBVariable conditionConstant = null;
-        if(getVariable(args.get(2)) != null){
-            conditionConstant = getVariable(args.get(2));
-        } else {
-            conditionConstant = new BBVariable(args.get(2));
-        }
-        BBIfCondition ifCondition = new BBIfCondition(conditionVarible, conditionConstant, this.parser.currentAddress() - 1, args.get(1));
-        if(!ifCondition.finished()){
-            int address = this.parser.currentAddress();
-            while(address < findBlockEnd(this.parser.currentAddress())){
-                execute(this.parser.getStatement(address));
-                address++;
-            }
-        } 
-        this.parser.branch(findBlockEnd(this.parser.currentAddress()) + 1);
-        BBStatement nextStatement = this.parser.getStatement(this.parser.currentAddress());
-        //System.out.print(nextStatement.getOperation());
-        if(nextStatement.getOperation().equals("elif") || nextStatement.getOperation().equals("else")){
-            nextStatement = this.parser.nextStatement();
-            if(nextStatement.getOperation().equals("elif")){
-                return startIf(nextStatement.getArguments());    
-            } else if (nextStatement.getOperation().equals("else")){
-                int address = this.parser.currentAddress() + 1;
-                if(ifCondition.finished()){
-                    while(address < findBlockEnd(this.parser.currentAddress())){
-                        execute(this.parser.getStatement(address));
-                        address++;
-                    }
-                }
-                this.parser.branch(findBlockEnd(this.parser.currentAddress()) + 1);
-            }
+    private boolean startIf(BBStatement statement){
+        ArrayList<String> args = statement.getArguments();
+        BBVariable conditionVarible = getOperand(statement, 0);
+        BBVariable conditionConstant = getOperand(statement, 2);
+        int address = this.parser.currentAddress() - 1;
+        BBIfCondition ifCondition = new BBIfCondition(conditionVarible, conditionConstant, address, args.get(1));
+        if(ifCondition.finished()){
+            this.parser.branch(this.parser.getBranch(address));
         }
         return true;
     }
@@ -407,9 +444,15 @@ public class BBInterpreter {
         String name = args.get(0);
         if(Character.isUpperCase(name.charAt(0))){
             args = new ArrayList<String>(args.subList(1, args.size() - 1));
-            int functionEnd = findBlockEnd(this.parser.currentAddress());
-            this.functions.put(name, new BBFunction(args, this.parser.currentAddress(), functionEnd, this.parser, name));
-            this.parser.branch(functionEnd + 1);
+            int address = this.parser.currentAddress() - 1;
+            int functionEnd = this.parser.getBlockEnd(address);
+            BBFunction function = this.functions.get(name);
+            if(function != null){
+                function.define(args, address + 1, functionEnd);
+            } else {
+                this.functions.put(name, new BBFunction(args, address + 1, functionEnd, this.parser, name, this.scope, this.variables, this.functions));
+            }
+            this.parser.branch(this.parser.getBranch(address));
             return true;
         } else {
             System.out.println("Error in line: " + this.parser.currentAddress() + ", function name must start with capital letter");
@@ -419,62 +462,99 @@ public class BBInterpreter {
     }
 
     /**
-      * Check whether a loop ended
+      * Close a block, jumping back to the loop condition or past the
+      * rest of an if/elif/else chain
       *
       * @return true 
       */
     private boolean end() {
-        if(!loops.isEmpty()){
-            BBLoopCondition loopCondition = loops.pop();
-            if(!loopCondition.finished()){
-                this.parser.branch(loopCondition.getBranch());
-            }
+        int branch = this.parser.getBranch(this.parser.currentAddress() - 1);
+        if(branch != -1){
+            this.parser.branch(branch);
         }
         return true;
     }
 
     /**
-      * Find corresponding end statement
-      @param address Address of while
-      @return Address of end
+      * Check whether a name can be used for a variable
+      *
+      * @param name Name of the variable
+      * @return false for keywords, maths names and function names
       */
-    private int findBlockEnd(int address){
-        ArrayList<BBStatement> statements = this.parser.getStatements();
-        int depth = 0;
-        for(int i = address - 1; i < statements.size(); i++){
-            String operation = statements.get(i).getOperation();
-            if(operation.equals("while") || operation.equals("func") || operation.equals("if") || operation.equals("elif") || operation.equals("else")){
-                depth++;
-            } else if (operation.equals("end")){
-                depth--;
-                if(depth == 0){
-                    return i;
-                }
-            }
-        }
-        return -1;
+    static boolean isValidName(String name){
+        return !invalidNames.contains(name) && !(name.length() > 1 && Character.isUpperCase(name.charAt(0)));
     }
 
-    private void setVariable(String name, BBVariable value){
-        if(!invalidNames.contains(name) && !(name.length() > 1 && Character.isUpperCase(name.charAt(0)))){
-            if(variables.get(name) == null){
-                variables.put(name, value);
+    private void setVariable(int slot, String name, BBVariable value){
+        if(isValidName(name)){
+            if(this.variables[slot] == null){
+                this.variables[slot] = new BBVariable(value);
             } else {
-                variables.get(name).setValue("" + value.getValue());
+                this.variables[slot].set(value);
             }
         } else {
             System.out.println("Error: Invalid name of variable: " + name);
-            System.out.print("Line " + (this.parser.currentAddress() - 1) + ": ");
+            System.out.print("Line " + this.parser.getLine(this.parser.currentAddress() - 1) + ": ");
             System.out.println(this.parser.getStatement(this.parser.currentAddress() - 1));
             System.exit(1);
         }
     }
 
-    private void setVariable(String name){
-        setVariable(name, new BBVariable("0"));
+    private void setVariable(int slot, String name){
+        setVariable(slot, name, ZERO);
+    }
+
+    /**
+      * Map the variables of the program to their values for verbose output,
+      * leaving out those BBOptimizer added
+      */
+    private HashMap<String, BBVariable> visibleVariables(){
+        HashMap<String, BBVariable> variables = this.scope.toMap(this.variables);
+        variables.keySet().removeIf(this.parser::isTemporary);
+        return variables;
+    }
+
+    private BBVariable getVariable(int slot){
+        return slot != BBScope.NONE ? this.variables[slot] : null;
     }
 
-    private BBVariable getVariable(String name){
-        return variables.get(name);
+    /**
+      * Get the value of a statement argument, either its literal value or
+      * the variable it names
+      *
+      * @param statement Statement holding the argument
+      * @param index Index of the argument
+      * @return BBVariable value of the argument
+      */
+    private BBVariable getOperand(BBStatement statement, int index){
+        if(statement.isConstant(index)){
+            return statement.getConstant(index);
+        }
+        BBVariable variable = getVariable(statement.getSlot(index));
+        return variable != null ? variable : new BBVariable(statement.getArguments().get(index));
+    }
+
+    /**
+      * Variables named by the maths expression being evaluated
+      */
+    private class Bindings implements MathEval.Bindings {
+        private BBStatement statement;
+
+        public boolean isBound(int index){
+            BBVariable variable = getVariable(this.statement.getExpressionSlot(index));
+            return variable != null && variable.getTag() <= BBVariable.DOUBLE;
+        }
+
+        public double getValue(int index){
+            return getVariable(this.statement.getExpressionSlot(index)).getDouble();
+        }
+
+        public boolean isIntegral(int index){
+            return getVariable(this.statement.getExpressionSlot(index)).getTag() == BBVariable.INT;
+        }
+
+        public long getLong(int index){
+            return getVariable(this.statement.getExpressionSlot(index)).getLong();
+        }
     }
 }
\ No newline at end of file
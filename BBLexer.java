@@ -0,0 +1,148 @@
+//package com.konradsobczak.bbeat;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+
+/**
+  * BBLexer - splits BareBones source into tokens in a single pass
+  *
+  * @author Konrad Sobczak
+  */
+public class BBLexer {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final CharBuffer buffer;
+    private final StringBuilder word = new StringBuilder();
+    private long offset = 0;
+    private boolean statementStart = true;
+
+    /**
+      * Create a lexer streaming from a reader
+      *
+      * @param reader Source to be tokenised
+      */
+    public BBLexer(Reader reader){
+        this.reader = reader;
+        this.buffer = CharBuffer.allocate(BUFFER_SIZE);
+        this.buffer.flip();
+    }
+
+    /**
+      * Create a lexer over source already in memory
+      *
+      * @param source Source to be tokenised
+      */
+    public BBLexer(CharSequence source){
+        this.reader = null;
+        if(source instanceof CharBuffer){
+            this.buffer = ((CharBuffer) source).duplicate();
+        } else {
+            this.buffer = CharBuffer.wrap(source);
+        }
+    }
+
+    /**
+      * Get the next token. Comments (statements starting with #) and
+      * whitespace, including CR and LF, are skipped. A string that is
+      * never closed is the last token
+      *
+      * @return next BBToken or null at the end of the source
+      * @throws UncheckedIOException if the reader fails
+      */
+    public BBToken nextToken(){
+        int c;
+        while((c = peek()) != -1){
+            if(isWhitespace(c)){
+                read();
+            } else if(c == '#' && this.statementStart){
+                while((c = read()) != -1 && c != ';');
+            } else {
+                break;
+            }
+        }
+        if(c == -1){
+            return null;
+        }
+
+        long start = this.offset;
+        if(c == ';'){
+            read();
+            this.statementStart = true;
+            return new BBToken(BBToken.SEPARATOR, ";", start);
+        }
+
+        this.statementStart = false;
+        this.word.setLength(0);
+        if(c == '"'){
+            this.word.append((char) read());
+            while((c = read()) != -1){
+                this.word.append((char) c);
+                if(c == '"'){
+                    return new BBToken(BBToken.STRING, this.word.toString(), start);
+                }
+            }
+            // Strings may hold ';', so only the end of the source shows the
+            // quote is never closed. The string is cut at its statement's end
+            int end = this.word.indexOf(";");
+            if(end != -1){
+                this.word.setLength(end);
+            }
+            return new BBToken(BBToken.UNTERMINATED, this.word.toString(), start);
+        }
+        while((c = peek()) != -1 && c != ';' && !isWhitespace(c)){
+            this.word.append((char) read());
+        }
+        return new BBToken(BBToken.WORD, this.word.toString(), start);
+    }
+
+    /**
+      * Get the offset of the next unread character
+      *
+      * @return long source offset
+      */
+    public long getOffset(){
+        return this.offset;
+    }
+
+    private int peek(){
+        if(!fill()){
+            return -1;
+        }
+        return this.buffer.get(this.buffer.position());
+    }
+
+    private int read(){
+        if(!fill()){
+            return -1;
+        }
+        this.offset++;
+        return this.buffer.get();
+    }
+
+    private boolean fill(){
+        if(this.buffer.hasRemaining()){
+            return true;
+        }
+        if(this.reader == null){
+            return false;
+        }
+        try {
+            int read;
+            do {
+                this.buffer.clear();
+                read = this.reader.read(this.buffer);
+                this.buffer.flip();
+            } while(read == 0);
+            return read > 0;
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isWhitespace(int c){
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+    }
+}
@@ -33,9 +33,9 @@ public class BBLoopCondition {
       */
     public boolean finished(){
         if(this.type){
-            return this.loopVariable.getValue() == this.loopConstant.getValue();
+            return this.loopVariable.sameValue(this.loopConstant);
         } else {
-            return this.loopVariable.getValue() != this.loopConstant.getValue();
+            return !this.loopVariable.sameValue(this.loopConstant);
         }
     }
 
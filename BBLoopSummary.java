@@ -0,0 +1,759 @@
+//package com.konradsobczak.bbeat;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.function.IntFunction;
+
+/**
+  * BBLoopSummary - closed form effect of a counting loop
+  *
+  * A counting loop is a 'while x not K' loop whose body moves x one step
+  * towards K and otherwise only uses incr, decr, clear, copy and nested
+  * counting loops. The body is run once on symbolic values, giving the
+  * value of every variable after one iteration in terms of the values
+  * before it. From that the value after all n iterations is derived when
+  * it is
+  * <pre>
+  *     v + a + b * x   added to v every iteration, for a and b unchanged
+  *                     by the loop: v + a * n + b * (sum of x over the loop)
+  *     v * k           multiplied by k unchanged by the loop: v * k ^ n
+  *     v * (a + b * x) multiplied by a factor following x: v times the
+  *                     product of the factors, so v * x! for factorials
+  *     h               set to anything else: h with every variable at its
+  *                     value at the start of the last iteration, if n is
+  *                     not 0
+  * </pre>
+  * The values at the start of the last iteration are those after n - 1
+  * iterations, which the first three forms give. That covers the scratch
+  * variables of the usual BareBones multiplication, which are reset and
+  * counted down inside every iteration, so power and factorial loops built
+  * around one are summarised as well. When h depends on a variable without
+  * a closed form, such as the counter of a nested loop that keeps its value
+  * if the nested loop doesn't run, the loop is interpreted whenever that
+  * value is needed.
+  *
+  * Multiplication, exponentiation and triangular numbers written as nested
+  * loops run in constant time, a product of factors following x takes one
+  * step per iteration until it reaches 0, as it does after 64 even
+  * factors. Loops that don't fit are left without a summary, their
+  * nested loops can still have their own.
+  *
+  * Whole numbers wrap around, and so does everything but the iteration
+  * count, which is the unsigned distance from x to K.
+  *
+  * @author Konrad Sobczak
+  */
+public class BBLoopSummary {
+    private final String[] names;
+    private final int[] targets;
+    private final Term[] results;
+    private int[] slots;
+    private final BBVariable[] variables;
+    private final long[] values;
+    private final long[] resultValues;
+
+    private BBLoopSummary(String[] names, int[] targets, Term[] results){
+        this.names = names;
+        this.targets = targets;
+        this.results = results;
+        this.variables = new BBVariable[names.length];
+        this.values = new long[names.length];
+        this.resultValues = new long[targets.length];
+    }
+
+    /**
+      * Summarise a counting loop
+      *
+      * @param parser Parsed program
+      * @param address Address of the while statement
+      * @return BBLoopSummary or null if the loop has no closed form
+      */
+    public static BBLoopSummary of(BBParser parser, int address){
+        BBStatement loop = parser.getStatement(address);
+        ArrayList<String> args = loop.getArguments();
+        int end = parser.getBlockEnd(address);
+        if(args.size() < 3 || !args.get(1).equals("not") || !isName(loop, 0) || !loop.isConstant(2)
+            || loop.getConstant(2).getTag() != BBVariable.INT || end >= parser.getStatements().size()){
+            return null;
+        }
+        long limit = loop.getConstant(2).getLong();
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<Term> state = new ArrayList<Term>();
+        int counter = variable(names, state, args.get(0));
+
+        for(int i = address + 1; i < end; i++){
+            BBStatement statement = parser.getStatement(i);
+            ArrayList<String> arguments = statement.getArguments();
+            switch(statement.getOpcode()){
+                case INCR:
+                case DECR:
+                case CLEAR: {
+                    if(arguments.size() != 1 || !isName(statement, 0)){
+                        return null;
+                    }
+                    int v = variable(names, state, arguments.get(0));
+                    if(statement.getOpcode() == BBOpcode.CLEAR){
+                        state.set(v, new Constant(0));
+                    } else {
+                        state.set(v, sum(state.get(v), new Constant(statement.getOpcode() == BBOpcode.INCR ? 1 : -1)));
+                    }
+                    break;
+                }
+                case COPY: {
+                    if(arguments.size() != 3 || !isName(statement, 0) || !isName(statement, 2)){
+                        return null;
+                    }
+                    int source = variable(names, state, arguments.get(0));
+                    int target = variable(names, state, arguments.get(2));
+                    state.set(target, state.get(source));
+                    break;
+                }
+                case WHILE: {
+                    BBLoopSummary inner = of(parser, i);
+                    if(inner == null){
+                        return null;
+                    }
+                    Term[] entry = new Term[inner.names.length];
+                    for(int k = 0; k < entry.length; k++){
+                        entry[k] = state.get(variable(names, state, inner.names[k]));
+                    }
+                    for(int k = 0; k < inner.targets.length; k++){
+                        state.set(variable(names, state, inner.names[inner.targets[k]]), inner.results[k].substitute(entry));
+                    }
+                    i = parser.getBlockEnd(i);
+                    break;
+                }
+                default:
+                    return null;
+            }
+        }
+
+        Term step = state.get(counter);
+        if(!(step instanceof Sum) || !isVariable(((Sum) step).left, counter) || !(((Sum) step).right instanceof Constant)
+            || Math.abs(((Constant) ((Sum) step).right).value) != 1){
+            return null;
+        }
+        int direction = (int) ((Constant) ((Sum) step).right).value;
+        BitSet changed = new BitSet();
+        for(int v = 0; v < state.size(); v++){
+            if(!isVariable(state.get(v), v) && v != counter){
+                changed.set(v);
+            }
+        }
+
+        // The iteration count, as used for exponents and tests, and its
+        // value modulo 2^32 as used in sums and products, for all iterations
+        // and for all but the last
+        Term x = new Variable(counter);
+        Term iterations = new Count(x, limit, direction);
+        Term distance = direction < 0 ? sum(x, new Constant(-limit)) : sum(product(new Constant(-1), x), new Constant(limit));
+        Term earlierIterations = new Count(x, limit - direction, direction);
+        Term earlierDistance = sum(distance, new Constant(-1));
+
+        // Variables with a closed form of their own, then everything else
+        // from the values at the start of the last iteration
+        Term[] closed = new Term[state.size()];
+        Term[] last = new Term[state.size()];
+        for(int v = 0; v < last.length; v++){
+            if(v == counter){
+                last[v] = new Constant(limit - direction);
+            } else if(!changed.get(v)){
+                last[v] = new Variable(v);
+            } else if((closed[v] = closedForm(state.get(v), v, counter, direction, changed, iterations, distance)) != null){
+                last[v] = closedForm(state.get(v), v, counter, direction, changed, earlierIterations, earlierDistance);
+            } else {
+                last[v] = UNKNOWN;
+            }
+        }
+
+        ArrayList<Integer> targets = new ArrayList<Integer>();
+        ArrayList<Term> results = new ArrayList<Term>();
+        for(int v = changed.nextSetBit(0); v >= 0; v = changed.nextSetBit(v + 1)){
+            Term result = closed[v];
+            if(result == null){
+                Term value = state.get(v).substitute(last);
+                if(value == UNKNOWN){
+                    return null;
+                }
+                result = new Choice(iterations, value, new Variable(v));
+            }
+            targets.add(v);
+            results.add(result);
+        }
+        targets.add(counter);
+        results.add(new Constant(limit));
+
+        int[] targetArray = new int[targets.size()];
+        for(int i = 0; i < targetArray.length; i++){
+            targetArray[i] = targets.get(i);
+        }
+        return new BBLoopSummary(names.toArray(new String[0]), targetArray, results.toArray(new Term[0]));
+    }
+
+    /**
+      * Value of v after a number of iterations, if it has a closed form that
+      * only depends on the values before the loop
+      *
+      * @param update Value of v after one iteration
+      * @param iterations Number of iterations
+      * @param distance Number of iterations modulo 2^32, in terms of x
+      * @return Term or null if v has no closed form
+      */
+    private static Term closedForm(Term update, int v, int counter, int direction, BitSet changed, Term iterations, Term distance){
+        Term x = new Variable(counter);
+        Term added = additive(update, v);
+        Term factor = multiplicative(update, v);
+        Term[] linear;
+        if(added != null && !uses(added, changed) && (linear = linear(added, counter)) != null){
+            Term counterSum = sum(product(distance, x), product(new Constant(direction), new Triangle(iterations)));
+            return sum(new Variable(v), sum(product(linear[0], distance), product(linear[1], counterSum)));
+        } else if(factor != null && !uses(factor, changed) && !uses(factor, counter)){
+            return product(new Variable(v), new Power(factor, iterations));
+        } else if(factor != null && !uses(factor, changed) && (linear = linear(factor, counter)) != null){
+            return product(new Variable(v), new CounterProduct(linear[0], linear[1], x, direction, iterations));
+        }
+        return null;
+    }
+
+    /**
+      * Resolve the variables of the summary to slots of a scope
+      *
+      * @param scope Scope of the loop
+      */
+    public void resolve(BBScope scope){
+        int[] resolved = new int[this.names.length];
+        for(int i = 0; i < resolved.length; i++){
+            resolved[i] = scope.slot(this.names[i]);
+        }
+        this.slots = resolved;
+    }
+
+    /**
+      * Run the loop in constant time. Nothing is changed unless every
+      * variable of the loop holds a whole number and the summary doesn't
+      * need a value it can't derive, otherwise the loop is left to be
+      * interpreted
+      *
+      * @param variables Variables of the running scope by slot
+      * @return true if the loop was run
+      */
+    public boolean apply(IntFunction<BBVariable> variables){
+        if(this.slots == null){
+            return false;
+        }
+        for(int i = 0; i < this.names.length; i++){
+            BBVariable variable = variables.apply(this.slots[i]);
+            if(variable == null || variable.getTag() != BBVariable.INT){
+                return false;
+            }
+            for(int j = 0; j < i; j++){
+                if(this.variables[j] == variable){
+                    return false;
+                }
+            }
+            this.variables[i] = variable;
+            this.values[i] = variable.getLong();
+        }
+        try {
+            for(int i = 0; i < this.targets.length; i++){
+                this.resultValues[i] = this.results[i].evaluate(this.values);
+            }
+        } catch (UnknownValue e){
+            return false;
+        }
+        for(int i = 0; i < this.targets.length; i++){
+            this.variables[this.targets[i]].setLong(this.resultValues[i]);
+        }
+        return true;
+    }
+
+    public String toString(){
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < this.targets.length; i++){
+            Term result = this.results[i];
+            String name = this.names[this.targets[i]];
+            if(i > 0){
+                text.append("; ");
+            }
+            if(result instanceof Sum && isVariable(((Sum) result).left, this.targets[i])){
+                text.append(name).append(" += ").append(((Sum) result).right.toString(this.names));
+            } else {
+                text.append(name).append(" = ").append(result.toString(this.names));
+            }
+        }
+        return text.toString();
+    }
+
+    private static boolean isName(BBStatement statement, int index){
+        return !statement.isConstant(index) && BBInterpreter.isValidName(statement.getArguments().get(index));
+    }
+
+    private static int variable(ArrayList<String> names, ArrayList<Term> state, String name){
+        int index = names.indexOf(name);
+        if(index == -1){
+            index = names.size();
+            names.add(name);
+            state.add(new Variable(index));
+        }
+        return index;
+    }
+
+    private static boolean isVariable(Term term, int variable){
+        return term instanceof Variable && ((Variable) term).index == variable;
+    }
+
+    private static boolean uses(Term term, BitSet variables){
+        BitSet used = new BitSet();
+        term.collect(used);
+        return used.intersects(variables);
+    }
+
+    private static boolean uses(Term term, int variable){
+        BitSet used = new BitSet();
+        term.collect(used);
+        return used.get(variable);
+    }
+
+    /**
+      * Split term into v + rest
+      *
+      * @return Term rest not using v, null if there is none
+      */
+    private static Term additive(Term term, int v){
+        if(isVariable(term, v)){
+            return new Constant(0);
+        } else if(term instanceof Sum){
+            Sum sum = (Sum) term;
+            if(!uses(sum.right, v)){
+                Term rest = additive(sum.left, v);
+                return rest != null ? sum(rest, sum.right) : null;
+            } else if(!uses(sum.left, v)){
+                Term rest = additive(sum.right, v);
+                return rest != null ? sum(sum.left, rest) : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+      * Split term into v * factor
+      *
+      * @return Term factor not using v, null if there is none
+      */
+    private static Term multiplicative(Term term, int v){
+        if(term instanceof Product){
+            Product product = (Product) term;
+            if(isVariable(product.left, v) && !uses(product.right, v)){
+                return product.right;
+            } else if(isVariable(product.right, v) && !uses(product.left, v)){
+                return product.left;
+            }
+        }
+        return null;
+    }
+
+    /**
+      * Split term into a + b * x
+      *
+      * @return Term[] {a, b} not using x, null if the term isn't linear in x
+      */
+    private static Term[] linear(Term term, int x){
+        if(!uses(term, x)){
+            return new Term[]{term, new Constant(0)};
+        } else if(isVariable(term, x)){
+            return new Term[]{new Constant(0), new Constant(1)};
+        } else if(term instanceof Sum){
+            Term[] left = linear(((Sum) term).left, x);
+            Term[] right = linear(((Sum) term).right, x);
+            if(left != null && right != null){
+                return new Term[]{sum(left[0], right[0]), sum(left[1], right[1])};
+            }
+        } else if(term instanceof Product){
+            Product product = (Product) term;
+            Term[] left = linear(product.left, x);
+            Term[] right = linear(product.right, x);
+            if(left != null && right != null && !uses(product.left, x)){
+                return new Term[]{product(product.left, right[0]), product(product.left, right[1])};
+            } else if(left != null && right != null && !uses(product.right, x)){
+                return new Term[]{product(left[0], product.right), product(left[1], product.right)};
+            }
+        }
+        return null;
+    }
+
+    private static Term sum(Term left, Term right){
+        if(left == UNKNOWN || right == UNKNOWN){
+            return UNKNOWN;
+        } else if(left instanceof Constant && right instanceof Constant){
+            return new Constant(((Constant) left).value + ((Constant) right).value);
+        } else if(left instanceof Constant && ((Constant) left).value == 0){
+            return right;
+        } else if(right instanceof Constant && ((Constant) right).value == 0){
+            return left;
+        } else if(left instanceof Constant){
+            return sum(right, left);
+        } else if(right instanceof Constant && left instanceof Sum && ((Sum) left).right instanceof Constant){
+            return sum(((Sum) left).left, new Constant(((Constant) ((Sum) left).right).value + ((Constant) right).value));
+        }
+        return new Sum(left, right);
+    }
+
+    private static Term product(Term left, Term right){
+        if(left == UNKNOWN || right == UNKNOWN){
+            return UNKNOWN;
+        } else if(left instanceof Constant && right instanceof Constant){
+            return new Constant(((Constant) left).value * ((Constant) right).value);
+        } else if(left instanceof Constant && ((Constant) left).value == 0 || right instanceof Constant && ((Constant) right).value == 1){
+            return left;
+        } else if(right instanceof Constant && ((Constant) right).value == 0 || left instanceof Constant && ((Constant) left).value == 1){
+            return right;
+        }
+        return new Product(left, right);
+    }
+
+    /**
+      * Value of a variable after some statements, in terms of the values of
+      * the loop's variables before them. Evaluated modulo 2^64, which gives
+      * the same whole numbers modulo 2^32 as running the statements
+      */
+    private static abstract class Term {
+        abstract long evaluate(long[] values);
+        abstract void collect(BitSet used);
+        abstract Term substitute(Term[] values);
+        abstract String toString(String[] names);
+    }
+
+    private static class Constant extends Term {
+        final long value;
+
+        Constant(long value){
+            this.value = value;
+        }
+
+        long evaluate(long[] values){
+            return this.value;
+        }
+
+        void collect(BitSet used){
+        }
+
+        Term substitute(Term[] values){
+            return this;
+        }
+
+        String toString(String[] names){
+            return Long.toString(this.value);
+        }
+    }
+
+    private static class Variable extends Term {
+        final int index;
+
+        Variable(int index){
+            this.index = index;
+        }
+
+        long evaluate(long[] values){
+            return values[this.index];
+        }
+
+        void collect(BitSet used){
+            used.set(this.index);
+        }
+
+        Term substitute(Term[] values){
+            return values[this.index];
+        }
+
+        String toString(String[] names){
+            return names[this.index];
+        }
+    }
+
+    private static class Sum extends Term {
+        final Term left;
+        final Term right;
+
+        Sum(Term left, Term right){
+            this.left = left;
+            this.right = right;
+        }
+
+        long evaluate(long[] values){
+            return this.left.evaluate(values) + this.right.evaluate(values);
+        }
+
+        void collect(BitSet used){
+            this.left.collect(used);
+            this.right.collect(used);
+        }
+
+        Term substitute(Term[] values){
+            return sum(this.left.substitute(values), this.right.substitute(values));
+        }
+
+        String toString(String[] names){
+            if(this.right instanceof Constant && ((Constant) this.right).value < 0){
+                return this.left.toString(names) + " - " + -((Constant) this.right).value;
+            }
+            return this.left.toString(names) + " + " + this.right.toString(names);
+        }
+    }
+
+    private static class Product extends Term {
+        final Term left;
+        final Term right;
+
+        Product(Term left, Term right){
+            this.left = left;
+            this.right = right;
+        }
+
+        long evaluate(long[] values){
+            return this.left.evaluate(values) * this.right.evaluate(values);
+        }
+
+        void collect(BitSet used){
+            this.left.collect(used);
+            this.right.collect(used);
+        }
+
+        Term substitute(Term[] values){
+            return product(this.left.substitute(values), this.right.substitute(values));
+        }
+
+        String toString(String[] names){
+            return factor(this.left, names) + " * " + factor(this.right, names);
+        }
+
+        private static String factor(Term term, String[] names){
+            return term instanceof Sum ? "(" + term.toString(names) + ")" : term.toString(names);
+        }
+    }
+
+    /**
+      * Base raised to an iteration count
+      */
+    private static class Power extends Term {
+        final Term base;
+        final Term exponent;
+
+        Power(Term base, Term exponent){
+            this.base = base;
+            this.exponent = exponent;
+        }
+
+        long evaluate(long[] values){
+            long base = this.base.evaluate(values);
+            long exponent = this.exponent.evaluate(values);
+            long result = 1;
+            while(exponent != 0){
+                if((exponent & 1) != 0){
+                    result *= base;
+                }
+                base *= base;
+                exponent >>>= 1;
+            }
+            return result;
+        }
+
+        void collect(BitSet used){
+            this.base.collect(used);
+            this.exponent.collect(used);
+        }
+
+        Term substitute(Term[] values){
+            Term base = this.base.substitute(values);
+            Term exponent = this.exponent.substitute(values);
+            return base == UNKNOWN || exponent == UNKNOWN ? UNKNOWN : new Power(base, exponent);
+        }
+
+        String toString(String[] names){
+            return "(" + this.base.toString(names) + ") ^ " + this.exponent.toString(names);
+        }
+    }
+
+    /**
+      * Number of iterations of a loop counting to limit, the unsigned
+      * distance from the counter to the limit
+      */
+    private static class Count extends Term {
+        final Term counter;
+        final long limit;
+        final int direction;
+
+        Count(Term counter, long limit, int direction){
+            this.counter = counter;
+            this.limit = limit;
+            this.direction = direction;
+        }
+
+        long evaluate(long[] values){
+            return Integer.toUnsignedLong((int) ((this.counter.evaluate(values) - this.limit) * -this.direction));
+        }
+
+        void collect(BitSet used){
+            this.counter.collect(used);
+        }
+
+        Term substitute(Term[] values){
+            Term counter = this.counter.substitute(values);
+            return counter == UNKNOWN ? UNKNOWN : new Count(counter, this.limit, this.direction);
+        }
+
+        String toString(String[] names){
+            return "|" + this.counter.toString(names) + " -> " + this.limit + "|";
+        }
+    }
+
+    /**
+      * Product of a + b * x over the values x takes in the iterations of a
+      * loop, multiplied out one iteration at a time until it reaches 0
+      */
+    private static class CounterProduct extends Term {
+        final Term a;
+        final Term b;
+        final Term counter;
+        final int direction;
+        final Term count;
+
+        CounterProduct(Term a, Term b, Term counter, int direction, Term count){
+            this.a = a;
+            this.b = b;
+            this.counter = counter;
+            this.direction = direction;
+            this.count = count;
+        }
+
+        long evaluate(long[] values){
+            long a = this.a.evaluate(values);
+            long b = this.b.evaluate(values);
+            long x = this.counter.evaluate(values);
+            long n = this.count.evaluate(values);
+            long result = 1;
+            for(long i = 0; i < n && result != 0; i++){
+                result *= a + b * x;
+                x += this.direction;
+            }
+            return result;
+        }
+
+        void collect(BitSet used){
+            this.a.collect(used);
+            this.b.collect(used);
+            this.counter.collect(used);
+            this.count.collect(used);
+        }
+
+        Term substitute(Term[] values){
+            Term a = this.a.substitute(values);
+            Term b = this.b.substitute(values);
+            Term counter = this.counter.substitute(values);
+            Term count = this.count.substitute(values);
+            if(a == UNKNOWN || b == UNKNOWN || counter == UNKNOWN || count == UNKNOWN){
+                return UNKNOWN;
+            }
+            return new CounterProduct(a, b, counter, this.direction, count);
+        }
+
+        String toString(String[] names){
+            return "product of (" + sum(this.a, product(this.b, this.counter)).toString(names) + ") over " + this.count.toString(names);
+        }
+    }
+
+    /**
+      * n * (n - 1) / 2 of an iteration count n, computed exactly before
+      * wrapping around
+      */
+    private static class Triangle extends Term {
+        final Term count;
+
+        Triangle(Term count){
+            this.count = count;
+        }
+
+        long evaluate(long[] values){
+            long n = this.count.evaluate(values);
+            return (n & 1) == 0 ? (n >>> 1) * (n - 1) : n * ((n - 1) >>> 1);
+        }
+
+        void collect(BitSet used){
+            this.count.collect(used);
+        }
+
+        Term substitute(Term[] values){
+            Term count = this.count.substitute(values);
+            return count == UNKNOWN ? UNKNOWN : new Triangle(count);
+        }
+
+        String toString(String[] names){
+            String n = this.count.toString(names);
+            return n + " * (" + n + " - 1) / 2";
+        }
+    }
+
+    /**
+      * One of two values depending on whether an iteration count is 0
+      */
+    private static class Choice extends Term {
+        final Term count;
+        final Term ifRun;
+        final Term ifNotRun;
+
+        Choice(Term count, Term ifRun, Term ifNotRun){
+            this.count = count;
+            this.ifRun = ifRun;
+            this.ifNotRun = ifNotRun;
+        }
+
+        long evaluate(long[] values){
+            return this.count.evaluate(values) != 0 ? this.ifRun.evaluate(values) : this.ifNotRun.evaluate(values);
+        }
+
+        void collect(BitSet used){
+            this.count.collect(used);
+            this.ifRun.collect(used);
+            this.ifNotRun.collect(used);
+        }
+
+        Term substitute(Term[] values){
+            Term count = this.count.substitute(values);
+            Term ifRun = this.ifRun.substitute(values);
+            Term ifNotRun = this.ifNotRun.substitute(values);
+            return count == UNKNOWN || ifRun == UNKNOWN && ifNotRun == UNKNOWN ? UNKNOWN : new Choice(count, ifRun, ifNotRun);
+        }
+
+        String toString(String[] names){
+            return "(" + this.count.toString(names) + " > 0 ? " + this.ifRun.toString(names) + " : " + this.ifNotRun.toString(names) + ")";
+        }
+    }
+
+    /**
+      * Value the summary can't derive, such as a variable without a closed
+      * form at the start of the last iteration. The loop is interpreted
+      * whenever it is needed
+      */
+    private static final Term UNKNOWN = new Term(){
+        long evaluate(long[] values){
+            throw new UnknownValue();
+        }
+
+        void collect(BitSet used){
+        }
+
+        Term substitute(Term[] values){
+            return this;
+        }
+
+        String toString(String[] names){
+            return "?";
+        }
+    };
+
+    @SuppressWarnings("serial")
+    private static class UnknownValue extends RuntimeException {
+        UnknownValue(){
+            super(null, null, false, false);
+        }
+    }
+}
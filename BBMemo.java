@@ -0,0 +1,136 @@
+//package com.konradsobczak.bbeat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+  * BBMemo - remembers the results of a pure BareBones function
+  *
+  * Results are looked up by the values of the arguments. The table keeps
+  * the most recently used results, evicting the least recently used one
+  * once it holds CAPACITY results.
+  *
+  * @author Konrad Sobczak
+  */
+class BBMemo {
+    /** Number of results kept per function */
+    static final int CAPACITY = 4096;
+
+    private final LinkedHashMap<Key, BBVariable> table;
+    private final Key probe;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+      * Create a new memo table
+      *
+      * @param arity Number of parameters of the function
+      * @param capacity Number of results kept
+      */
+    @SuppressWarnings("serial")
+    BBMemo(int arity, final int capacity){
+        this.probe = new Key(new BBVariable[arity]);
+        this.table = new LinkedHashMap<Key, BBVariable>(16, 0.75f, true){
+            protected boolean removeEldestEntry(Map.Entry<Key, BBVariable> eldest){
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+      * Look up the result of a call
+      *
+      * @param arguments Slots of the call, starting with the arguments
+      * @return BBVariable result, not to be modified, or null if unknown
+      */
+    BBVariable get(BBVariable[] arguments){
+        this.probe.set(arguments);
+        BBVariable value = this.table.get(this.probe);
+        if(value != null){
+            this.hits++;
+        } else {
+            this.misses++;
+        }
+        return value;
+    }
+
+    /**
+      * Get a key holding a copy of the arguments last looked up, to be
+      * given to put once the call returns
+      *
+      * @return Object key
+      */
+    Object key(){
+        BBVariable[] values = new BBVariable[this.probe.values.length];
+        for(int i = 0; i < values.length; i++){
+            values[i] = new BBVariable(this.probe.values[i]);
+        }
+        Key key = new Key(values);
+        key.hash = this.probe.hash;
+        return key;
+    }
+
+    /**
+      * Remember the result of a call
+      *
+      * @param key Key from key
+      * @param value Returned value, copied
+      * @return BBVariable remembered result
+      */
+    BBVariable put(Object key, BBVariable value){
+        BBVariable result = new BBVariable(value);
+        this.table.put((Key) key, result);
+        return result;
+    }
+
+    public String toString(){
+        return this.hits + " hits, " + this.misses + " misses, " + this.table.size() + " results kept";
+    }
+
+    private static class Key {
+        private final BBVariable[] values;
+        private int hash;
+
+        Key(BBVariable[] values){
+            this.values = values;
+        }
+
+        void set(BBVariable[] arguments){
+            int hash = 1;
+            for(int i = 0; i < this.values.length; i++){
+                BBVariable value = arguments[i];
+                this.values[i] = value;
+                int valueHash;
+                switch(value.getTag()){
+                    case BBVariable.DOUBLE:
+                        valueHash = Double.hashCode(value.getDouble());
+                        break;
+                    case BBVariable.STR:
+                        valueHash = value.getString().hashCode();
+                        break;
+                    default:
+                        valueHash = Long.hashCode(value.getLong());
+                }
+                hash = 31 * hash + 4 * valueHash + value.getTag();
+            }
+            this.hash = hash;
+        }
+
+        public int hashCode(){
+            return this.hash;
+        }
+
+        public boolean equals(Object other){
+            if(!(other instanceof Key)){
+                return false;
+            }
+            BBVariable[] otherValues = ((Key) other).values;
+            for(int i = 0; i < this.values.length; i++){
+                if(!this.values[i].sameValue(otherValues[i])){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
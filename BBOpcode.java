@@ -0,0 +1,72 @@
+//package com.konradsobczak.bbeat;
+
+import java.util.HashMap;
+
+/**
+  * BBOpcode - operations of BareBones statements
+  *
+  * @author Konrad Sobczak
+  */
+public enum BBOpcode {
+    PRINT("print"),
+    INCR("incr"),
+    DECR("decr"),
+    COPY("copy"),
+    SET("set"),
+    CLEAR("clear"),
+    INIT("init"),
+    WHILE("while"),
+    IF("if"),
+    ELIF("elif"),
+    ELSE("else"),
+    FUNC("func"),
+    END("end"),
+    RETURN("return"),
+    EVAL("eval"),
+    /** Anything else, resolved as a function call when executed */
+    CALL(null);
+
+    private static final HashMap<String, BBOpcode> keywords = new HashMap<String, BBOpcode>();
+    static {
+        for(BBOpcode opcode : values()){
+            if(opcode.keyword != null){
+                keywords.put(opcode.keyword, opcode);
+            }
+        }
+    }
+
+    private final String keyword;
+
+    BBOpcode(String keyword){
+        this.keyword = keyword;
+    }
+
+    /**
+      * Get the keyword of the operation
+      *
+      * @return String keyword, null for CALL
+      */
+    public String getKeyword(){
+        return this.keyword;
+    }
+
+    /**
+      * Check whether the operation opens a block closed by end
+      *
+      * @return true for while, if, elif, else and func
+      */
+    public boolean opensBlock(){
+        return this == WHILE || this == IF || this == ELIF || this == ELSE || this == FUNC;
+    }
+
+    /**
+      * Resolve an operation name
+      *
+      * @param operation Operation name
+      * @return BBOpcode of the operation, CALL if it isn't a keyword
+      */
+    public static BBOpcode of(String operation){
+        BBOpcode opcode = keywords.get(operation);
+        return opcode != null ? opcode : CALL;
+    }
+}
@@ -0,0 +1,977 @@
+//package com.konradsobczak.bbeat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+  * BBOptimizer - rewrites parsed BareBones programs before they are run
+  *
+  * Variables initialised once and never changed are folded into the
+  * statements reading them, maths expressions of constants are evaluated,
+  * calls of small functions are replaced by their bodies, if/elif/else
+  * blocks that can never run and functions that are never called are
+  * removed, and counting loops are given a BBLoopSummary, which the
+  * interpreter uses to run them in constant time. Adding or removing
+  * statements gives a new parser, whose getLine still reports the source
+  * lines.
+  *
+  * @author Konrad Sobczak
+  */
+public class BBOptimizer {
+    /** Largest number of statements of a function body that is inlined */
+    public static final int INLINE_BUDGET = 8;
+    /** Start of the names of variables added for inlined calls */
+    public static final String TEMPORARY_PREFIX = "inlined_";
+
+    private BBParser parser;
+    private final boolean verbose;
+    private final List<String> names;
+    private final MathEval math = new MathEval();
+    private final HashSet<String> temporaries = new HashSet<String>();
+
+    /**
+      * Create a new optimizer
+      *
+      * @param parser Parsed program
+      * @param verbose Report the rewrites
+      */
+    public BBOptimizer(BBParser parser, boolean verbose){
+        this(parser, verbose, new ArrayList<String>());
+    }
+
+    /**
+      * Create a new optimizer
+      *
+      * @param parser Parsed program
+      * @param verbose Report the rewrites
+      * @param names Variables given on the command line
+      */
+    public BBOptimizer(BBParser parser, boolean verbose, List<String> names){
+        this.parser = parser;
+        this.verbose = verbose;
+        this.names = names;
+    }
+
+    /**
+      * Optimize a program
+      *
+      * @param parser Parsed program
+      * @param args Arguments given to main function, -O0 turns optimization off,
+      *             -inline=N sets the largest function body inlined and -v
+      *             reports the rewrites
+      * @return BBParser of the optimized program
+      */
+    public static BBParser optimize(BBParser parser, String[] args){
+        boolean verbose = false;
+        int budget = INLINE_BUDGET;
+        ArrayList<String> names = new ArrayList<String>();
+        for(String arg : args){
+            if(arg.equals("-O0")){
+                return parser;
+            } else if(arg.equals("-v")){
+                verbose = true;
+            } else if(arg.startsWith("-inline=")){
+                try {
+                    budget = Integer.parseInt(arg.substring(arg.indexOf("=") + 1));
+                } catch (NumberFormatException e){
+                    System.out.println("Error: Invalid inline budget " + arg.substring(arg.indexOf("=") + 1));
+                    System.exit(1);
+                }
+            } else if(arg.charAt(0) != '-' && arg != args[args.length - 1] && arg.contains("=")){
+                names.add(arg.substring(0, arg.lastIndexOf("=")).trim());
+            }
+        }
+        BBOptimizer optimizer = new BBOptimizer(parser, verbose, names);
+        optimizer.foldConstants();
+        optimizer.inlineFunctions(budget);
+        optimizer.eliminateDeadCode();
+        optimizer.summariseLoops();
+        return optimizer.getParser();
+    }
+
+    /**
+      * Get the optimized program
+      *
+      * @return BBParser of the program
+      */
+    public BBParser getParser(){
+        return this.parser;
+    }
+
+    /**
+      * Fold constant variables into the statements reading them and
+      * evaluate maths expressions of constants. A variable is constant when
+      * it is initialised once outside of any block and nothing else assigns
+      * it or passes it to a function, so every statement after the init in
+      * the main program reads the initialised value. Statements keep their
+      * addresses
+      *
+      * @return int number of statements rewritten
+      */
+    public int foldConstants(){
+        ArrayList<BBStatement> statements = this.parser.getStatements();
+        HashSet<String> assigned = new HashSet<String>(this.names);
+        HashMap<String, Integer> inits = new HashMap<String, Integer>();
+        for(BBStatement statement : statements){
+            ArrayList<String> args = statement.getArguments();
+            switch(statement.getOpcode()){
+                case INIT:
+                    if(!args.isEmpty()){
+                        inits.merge(args.get(0), 1, Integer::sum);
+                    }
+                    break;
+                case INCR:
+                case DECR:
+                case CLEAR:
+                    if(!args.isEmpty()){
+                        assigned.add(args.get(0));
+                    }
+                    break;
+                case SET:
+                    if(!args.isEmpty()){
+                        assigned.add(args.get(0));
+                    }
+                    if(args.size() > 3 && !args.get(2).equals("eval")){
+                        assigned.addAll(args.subList(3, args.size()));
+                    }
+                    break;
+                case COPY:
+                    if(args.size() > 2){
+                        assigned.add(args.get(2));
+                    }
+                    break;
+                case RETURN:
+                    if(args.size() > 1 && !args.get(0).equals("eval")){
+                        assigned.addAll(args.subList(1, args.size()));
+                    }
+                    break;
+                case FUNC:
+                    if(args.size() > 1){
+                        assigned.addAll(args.subList(1, args.size()));
+                    }
+                    break;
+                case CALL:
+                    assigned.addAll(args);
+                    break;
+                default:
+                    break;
+            }
+        }
+        HashSet<String> variables = new HashSet<String>(assigned);
+        variables.addAll(inits.keySet());
+
+        HashMap<String, BBVariable> constants = new HashMap<String, BBVariable>();
+        int depth = 0;
+        int functionEnd = -1;
+        int count = 0;
+        for(int address = 0; address < statements.size(); address++){
+            BBStatement statement = statements.get(address);
+            BBOpcode opcode = statement.getOpcode();
+            boolean inFunction = address <= functionEnd;
+            ArrayList<String> words = words(statement);
+            boolean changed = !inFunction && propagate(words, opcode, constants);
+            changed = evaluate(words, opcode, variables) || changed;
+            if(changed){
+                statement = new BBStatement(words, statement);
+                statements.set(address, statement);
+                count++;
+                if(this.verbose){
+                    System.out.println("Folded constants in line " + this.parser.getLine(address) + ": " + statement.getText());
+                }
+            }
+
+            ArrayList<String> args = statement.getArguments();
+            if(opcode == BBOpcode.INIT && depth == 0 && !inFunction && args.size() == 3 && args.get(1).equals("=")
+                    && inits.get(args.get(0)) == 1 && !assigned.contains(args.get(0)) && BBInterpreter.isValidName(args.get(0))){
+                constants.put(args.get(0), new BBVariable(args.get(2)));
+            }
+            if(opcode == BBOpcode.FUNC && !inFunction){
+                functionEnd = this.parser.getBlockEnd(address);
+            }
+            if(opcode.opensBlock()){
+                depth++;
+            } else if(opcode == BBOpcode.END && depth > 0){
+                depth--;
+            }
+        }
+        return count;
+    }
+
+    /**
+      * Replace the names of constants read by a statement with their values
+      *
+      * @return true if the statement was changed
+      */
+    private static boolean propagate(ArrayList<String> words, BBOpcode opcode, HashMap<String, BBVariable> constants){
+        if(constants.isEmpty()){
+            return false;
+        }
+        boolean changed = false;
+        switch(opcode){
+            case WHILE:
+            case IF:
+            case ELIF:
+                for(int i = 1; i < words.size() && i <= 3; i += 2){
+                    changed = replace(words, i, constants, true) || changed;
+                }
+                break;
+            case PRINT:
+                for(int i = 1; i < words.size(); i++){
+                    if(words.get(i).equals("eval")){
+                        changed = substitute(words, i + 1, constants) || changed;
+                        break;
+                    }
+                    changed = replace(words, i, constants, false) || changed;
+                }
+                break;
+            case SET:
+                if(words.size() > 4 && words.get(3).equals("eval")){
+                    changed = substitute(words, 4, constants);
+                } else if(words.size() == 4){
+                    changed = replace(words, 3, constants, false);
+                }
+                break;
+            default:
+                break;
+        }
+        return changed;
+    }
+
+    /**
+      * Replace a word naming a constant with a literal of its value
+      *
+      * @param bare Whether a literal without quotes can be used
+      */
+    private static boolean replace(ArrayList<String> words, int index, HashMap<String, BBVariable> constants, boolean bare){
+        BBVariable value = constants.get(words.get(index));
+        String literal = value != null ? literal(value, bare) : null;
+        if(literal == null){
+            return false;
+        }
+        words.set(index, literal);
+        return true;
+    }
+
+    /**
+      * Substitute constants into the words of a maths expression. The
+      * interpreter gives MathEval the values of variables as operands, so
+      * only values written as plain unsigned numbers are substituted, which
+      * MathEval reads back as the same operand
+      */
+    private static boolean substitute(ArrayList<String> words, int from, HashMap<String, BBVariable> constants){
+        boolean changed = false;
+        for(int i = from; i < words.size(); i++){
+            String word = words.get(i);
+            String name = word.replace("(", "").replace(")", "");
+            BBVariable value = constants.get(name);
+            if(value != null && value.getTag() <= BBVariable.DOUBLE && value.getString().matches("[0-9]+(\\.[0-9]+)?")){
+                words.set(i, word.replace(name, value.getString()));
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+      * Get a literal parsed back into the same value
+      *
+      * @param value Value of the literal
+      * @param bare Whether a literal without quotes can be used
+      * @return String literal or null if there is none
+      */
+    private static String literal(BBVariable value, boolean bare){
+        String text = value.getString();
+        if(bare && BBStatement.isLiteral(text) && new BBVariable(text).sameValue(value)){
+            return text;
+        }
+        String quoted = "\"" + text + "\"";
+        return !text.contains("\"") && new BBVariable(quoted).sameValue(value) ? quoted : null;
+    }
+
+    /**
+      * Evaluate the maths expression of a set or print statement if it
+      * reads no variables and calls no impure functions
+      *
+      * @param variables Every name a variable could have
+      * @return true if the statement was changed
+      */
+    private boolean evaluate(ArrayList<String> words, BBOpcode opcode, HashSet<String> variables){
+        int from = -1;
+        if(opcode == BBOpcode.SET && words.size() > 4 && words.get(3).equals("eval")){
+            from = 4;
+        } else if(opcode == BBOpcode.PRINT){
+            from = words.indexOf("eval") + 1;
+        }
+        if(from <= 0 || from >= words.size()){
+            return false;
+        }
+        List<String> expression = words.subList(from, words.size());
+        for(String word : expression){
+            if(variables.contains(word.replace("(", "").replace(")", ""))){
+                return false;
+            }
+        }
+        double value;
+        Number exact;
+        try {
+            value = this.math.evaluate(String.join(" ", expression));
+            if(!this.math.previousExpressionConstant()){
+                return false;
+            }
+            exact = BBScope.compile(String.join(" ", expression)).evaluateExact(null);
+        } catch (Exception e){
+            return false;
+        }
+
+        BBVariable result = new BBVariable("0");
+        boolean whole = result.setExact(exact);
+        if(!whole){
+            result.setDouble(value);
+        }
+        if(opcode == BBOpcode.SET){
+            String literal = literal(result, false);
+            if(literal == null){
+                return false;
+            }
+            words.subList(3, words.size()).clear();
+            words.add(literal);
+            return true;
+        }
+        String literal = whole ? result.getString() : Double.toString(value);
+        if(expression.size() == 1 && expression.get(0).equals(literal)){
+            return false;
+        }
+        try {
+            if(!whole && this.math.evaluate(literal) != value){
+                return false;
+            }
+        } catch (Exception e){
+            return false;
+        }
+        expression.clear();
+        words.add(literal);
+        return true;
+    }
+
+    /**
+      * Replace calls of functions with at most budget statements in the
+      * main program by their bodies. Parameters are renamed to the
+      * variables passed, which keeps passing by name, while literal
+      * arguments, locals and unused results get variables of their own,
+      * declared at the start of the program. Returns set the variable the
+      * call was assigned to. Calls are only inlined when this can't be told
+      * apart from the call: every variable passed has been defined before
+      * it, and every local is first given a value by an init, clear or copy
+      * that always runs
+      *
+      * @param budget Largest number of statements of an inlined body
+      * @return int number of calls inlined
+      */
+    public int inlineFunctions(int budget){
+        ArrayList<BBStatement> statements = this.parser.getStatements();
+        int size = statements.size();
+        int[] depths = new int[size];
+        boolean[] inFunction = new boolean[size];
+        HashSet<String> globals = new HashSet<String>(this.names);
+        HashSet<String> words = new HashSet<String>(this.names);
+        HashMap<String, Integer> definitions = new HashMap<String, Integer>();
+        HashMap<String, Integer> defined = new HashMap<String, Integer>();
+        int depth = 0;
+        int functionEnd = -1;
+        for(int address = 0; address < size; address++){
+            BBStatement statement = statements.get(address);
+            ArrayList<String> args = statement.getArguments();
+            depths[address] = depth;
+            inFunction[address] = address <= functionEnd;
+            words.add(statement.getOperation());
+            for(String arg : args){
+                words.add(arg.replace("(", "").replace(")", ""));
+            }
+            if(statement.getOpcode() == BBOpcode.FUNC && !args.isEmpty()){
+                definitions.merge(args.get(0), 1, Integer::sum);
+            }
+            if(!inFunction[address] && statement.getOpcode() != BBOpcode.FUNC){
+                for(int i = 0; i < args.size(); i++){
+                    String name = args.get(i).replace("(", "").replace(")", "");
+                    if(!statement.isConstant(i) && !name.isEmpty() && BBInterpreter.isValidName(name)){
+                        globals.add(name);
+                    }
+                }
+                String target = target(statement);
+                if(depth == 0 && target != null && !defined.containsKey(target)){
+                    defined.put(target, address);
+                }
+            }
+            if(statement.getOpcode() == BBOpcode.FUNC && !inFunction[address]){
+                functionEnd = this.parser.getBlockEnd(address);
+            }
+            if(statement.getOpcode().opensBlock()){
+                depth++;
+            } else if(statement.getOpcode() == BBOpcode.END && depth > 0){
+                depth--;
+            }
+        }
+
+        HashMap<String, Inline> functions = new HashMap<String, Inline>();
+        for(int address = 0; address < size; address++){
+            BBStatement statement = statements.get(address);
+            if(statement.getOpcode() == BBOpcode.FUNC && depths[address] == 0 && !inFunction[address]
+                    && !statement.getArguments().isEmpty() && definitions.get(statement.getArguments().get(0)) == 1){
+                Inline function = Inline.of(this.parser, address, budget, globals);
+                if(function != null){
+                    functions.put(function.name, function);
+                }
+            }
+        }
+        if(functions.isEmpty()){
+            return 0;
+        }
+
+        ArrayList<BBStatement> declarations = new ArrayList<BBStatement>();
+        ArrayList<Integer> declarationLines = new ArrayList<Integer>();
+        ArrayList<BBStatement> inlined = new ArrayList<BBStatement>();
+        ArrayList<Integer> lines = new ArrayList<Integer>();
+        int count = 0;
+        for(int address = 0; address < size; address++){
+            BBStatement statement = statements.get(address);
+            ArrayList<String> args = statement.getArguments();
+            Inline function = null;
+            String target = null;
+            int from = 0;
+            if(!inFunction[address] && statement.getOpcode() == BBOpcode.CALL){
+                function = functions.get(statement.getOperation());
+            } else if(!inFunction[address] && statement.getOpcode() == BBOpcode.SET && args.size() > 2 && args.get(1).equals("=")){
+                function = functions.get(args.get(2));
+                target = args.get(0);
+                from = 3;
+            }
+            if(function == null || !function.accepts(statement, from, address, target, defined, this.names)){
+                inlined.add(statement);
+                lines.add(this.parser.getLine(address));
+                continue;
+            }
+
+            count++;
+            int line = this.parser.getLine(address);
+            HashMap<String, String> renames = new HashMap<String, String>();
+            for(String local : function.locals){
+                renames.put(local, fresh(function.name, local, words, declarations, declarationLines, line));
+            }
+            for(int i = from; i < args.size(); i++){
+                String parameter = function.parameters.get(i - from);
+                if(statement.isConstant(i)){
+                    String variable = fresh(function.name, parameter, words, declarations, declarationLines, line);
+                    renames.put(parameter, variable);
+                    inlined.add(assignment(variable, literal(statement.getConstant(i), false), statement));
+                    lines.add(line);
+                } else {
+                    renames.put(parameter, args.get(i));
+                }
+            }
+            if(target == null && function.returns > 0){
+                target = fresh(function.name, "return", words, declarations, declarationLines, line);
+            }
+            for(int body = function.start + 1; body < function.end; body++){
+                inlined.add(function.expand(this.parser.getStatement(body), body, renames, target));
+                lines.add(this.parser.getLine(body));
+            }
+            if(this.verbose){
+                System.out.println("Inlined function " + function.name + " in line " + line + ": " + statement);
+            }
+        }
+        if(count == 0){
+            return 0;
+        }
+        declarations.addAll(inlined);
+        declarationLines.addAll(lines);
+        int[] sourceLines = new int[declarationLines.size()];
+        for(int i = 0; i < sourceLines.length; i++){
+            sourceLines[i] = declarationLines.get(i);
+        }
+        this.parser = new BBParser(declarations, sourceLines);
+        this.parser.setTemporaries(this.temporaries);
+        return count;
+    }
+
+    /**
+      * Get the variable a statement always leaves defined
+      *
+      * @return String name or null if there is none
+      */
+    private static String target(BBStatement statement){
+        ArrayList<String> args = statement.getArguments();
+        switch(statement.getOpcode()){
+            case INIT:
+            case CLEAR:
+                return args.isEmpty() ? null : args.get(0);
+            case COPY:
+                return args.size() > 2 ? args.get(2) : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+      * Name a new variable for an inlined call and declare it with a clear
+      * at the start of the program. The variable is a temporary of the
+      * parser, hidden from the variables shown by -v
+      */
+    private String fresh(String function, String name, HashSet<String> words, ArrayList<BBStatement> declarations,
+            ArrayList<Integer> lines, int line){
+        String base = TEMPORARY_PREFIX + function.toLowerCase() + "_" + name + "_";
+        int suffix = 1;
+        while(words.contains(base + suffix)){
+            suffix++;
+        }
+        String variable = base + suffix;
+        words.add(variable);
+        this.temporaries.add(variable);
+        ArrayList<String> clear = new ArrayList<String>();
+        clear.add(BBOpcode.CLEAR.getKeyword());
+        clear.add(variable);
+        declarations.add(new BBStatement(clear));
+        lines.add(line);
+        return variable;
+    }
+
+    private static BBStatement assignment(String variable, String value, BBStatement original){
+        ArrayList<String> words = new ArrayList<String>();
+        words.add(BBOpcode.SET.getKeyword());
+        words.add(variable);
+        words.add("=");
+        words.add(value);
+        return new BBStatement(words, original);
+    }
+
+    /**
+      * A function whose calls can be replaced by its body
+      */
+    private static class Inline {
+        private final String name;
+        private final int start;
+        private final int end;
+        private final ArrayList<String> parameters;
+        private final HashSet<String> locals = new HashSet<String>();
+        private final HashSet<String> names = new HashSet<String>();
+        private final HashSet<Integer> firstAccesses = new HashSet<Integer>();
+        private int returns;
+        private boolean returnsLast;
+        private boolean fallible;
+
+        private Inline(String name, int start, int end, ArrayList<String> parameters){
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.parameters = parameters;
+        }
+
+        /**
+          * Check whether a function can be inlined
+          *
+          * @param parser Parsed program
+          * @param address Address of the func statement
+          * @param budget Largest number of statements of the body
+          * @param globals Names of the global scope
+          * @return Inline or null if calls of the function must stay calls
+          */
+        static Inline of(BBParser parser, int address, int budget, HashSet<String> globals){
+            BBStatement definition = parser.getStatement(address);
+            ArrayList<String> args = definition.getArguments();
+            int end = parser.getBlockEnd(address);
+            if(end >= parser.getStatements().size() || end - address - 1 > budget || args.size() < 2
+                    || !args.get(args.size() - 1).equals("do") || !Character.isUpperCase(args.get(0).charAt(0))){
+                return null;
+            }
+            ArrayList<String> parameters = new ArrayList<String>(args.subList(1, args.size() - 1));
+            if(new HashSet<String>(parameters).size() != parameters.size()){
+                return null;
+            }
+            Inline function = new Inline(args.get(0), address, end, parameters);
+
+            int depth = 0;
+            for(int body = address + 1; body < end; body++){
+                BBStatement statement = parser.getStatement(body);
+                ArrayList<String> words = statement.getArguments();
+                BBOpcode opcode = statement.getOpcode();
+                if(opcode == BBOpcode.FUNC || opcode == BBOpcode.CALL || words.contains("return")){
+                    return null;
+                }
+                if((opcode == BBOpcode.SET || opcode == BBOpcode.RETURN) && calls(statement, opcode == BBOpcode.SET ? 2 : 0)){
+                    return null;
+                }
+                if(opcode == BBOpcode.RETURN && words.isEmpty()){
+                    return null;
+                }
+                if(opcode == BBOpcode.RETURN){
+                    function.returns++;
+                }
+                for(int i = 0; i < words.size(); i++){
+                    if(statement.isVariable(i)){
+                        function.names.add(words.get(i).replace("(", "").replace(")", ""));
+                    }
+                }
+                String written = opcode == BBOpcode.INCR || opcode == BBOpcode.DECR || opcode == BBOpcode.SET ? (words.isEmpty() ? null : words.get(0)) : target(statement);
+                if(written != null && !parameters.contains(written) && !globals.contains(written)){
+                    function.locals.add(written);
+                }
+                if(body == end - 1){
+                    function.returnsLast = opcode == BBOpcode.RETURN && depth == 0;
+                }
+                if(opcode.opensBlock()){
+                    depth++;
+                } else if(opcode == BBOpcode.END && depth > 0){
+                    depth--;
+                }
+            }
+
+            for(String local : function.locals){
+                int first = function.firstAccess(parser, local);
+                if(first < 0){
+                    return null;
+                }
+                function.firstAccesses.add(first);
+            }
+            for(int body = address + 1; body < end && !function.fallible; body++){
+                function.fallible = function.canFail(parser.getStatement(body), body);
+            }
+            return function;
+        }
+
+        /**
+          * Check whether the expression of a set or return calls a function
+          */
+        private static boolean calls(BBStatement statement, int from){
+            ArrayList<String> args = statement.getArguments();
+            if(args.size() <= from || args.get(from).equals("eval") || statement.isConstant(from)){
+                return false;
+            }
+            return args.size() > from + 1 || !BBInterpreter.isValidName(args.get(from));
+        }
+
+        /**
+          * Check whether a statement of the body can fail without stopping
+          * the program, which inside a function only skips the rest of the
+          * body, but would skip the rest of the caller once inlined
+          */
+        private boolean canFail(BBStatement statement, int address){
+            ArrayList<String> args = statement.getArguments();
+            switch(statement.getOpcode()){
+                case INCR:
+                case DECR:
+                    return true;
+                case CLEAR:
+                    return !this.firstAccesses.contains(address);
+                case COPY:
+                    return args.isEmpty() || !isLocal(args.get(0));
+                case PRINT:
+                    for(int i = 0; i < args.size() && !args.get(i).equals("eval"); i++){
+                        if(statement.isVariable(i) && !isLocal(args.get(i))){
+                            return true;
+                        }
+                    }
+                    return false;
+                default:
+                    return false;
+            }
+        }
+
+        private boolean isLocal(String name){
+            return this.parameters.contains(name) || this.locals.contains(name);
+        }
+
+        /**
+          * Find the statement first using a local, which must define it
+          * whenever the body runs
+          *
+          * @return int address of the statement, -1 if it doesn't define the local
+          */
+        private int firstAccess(BBParser parser, String local){
+            int depth = 0;
+            for(int body = this.start + 1; body < this.end; body++){
+                BBStatement statement = parser.getStatement(body);
+                ArrayList<String> args = statement.getArguments();
+                for(int i = 0; i < args.size(); i++){
+                    if(statement.isVariable(i) && args.get(i).replace("(", "").replace(")", "").equals(local)){
+                        boolean defines = (statement.getOpcode() == BBOpcode.INIT && args.size() == 3 && args.get(1).equals("=") && i == 0)
+                                || (statement.getOpcode() == BBOpcode.CLEAR && i == 0)
+                                || (statement.getOpcode() == BBOpcode.COPY && i == 2 && !args.get(0).equals(local));
+                        return depth == 0 && defines && (statement.getOpcode() != BBOpcode.INIT
+                                || literal(new BBVariable(args.get(2)), false) != null) ? body : -1;
+                    }
+                }
+                if(statement.getOpcode().opensBlock()){
+                    depth++;
+                } else if(statement.getOpcode() == BBOpcode.END && depth > 0){
+                    depth--;
+                }
+            }
+            return -1;
+        }
+
+        /**
+          * Check whether a call can be inlined. A result assigned to a
+          * variable the body uses must be returned once, by the last
+          * statement, so that the variable changes when the call would
+          * have returned. A body that can fail is only inlined where the
+          * failure would have left the call without a result
+          *
+          * @param statement Statement holding the call
+          * @param from Index of the first argument
+          * @param address Address of the call
+          * @param target Variable the result is assigned to, null if unused
+          * @param defined Address at which variables are first defined
+          * @param commandLine Variables given on the command line
+          * @return true if the call can be replaced by the body
+          */
+        boolean accepts(BBStatement statement, int from, int address, String target,
+                HashMap<String, Integer> defined, List<String> commandLine){
+            ArrayList<String> args = statement.getArguments();
+            if(address < this.end || args.size() - from != this.parameters.size()){
+                return false;
+            }
+            if(target != null && (!this.returnsLast || !isDefined(target, address, defined, commandLine))){
+                return false;
+            }
+            if(this.fallible && (target == null || this.returns > 1)){
+                return false;
+            }
+            boolean shared = target != null && this.returns > 1;
+            if(shared && this.names.contains(target)){
+                return false;
+            }
+            for(int i = from; i < args.size(); i++){
+                if(statement.isConstant(i)){
+                    if(literal(statement.getConstant(i), false) == null){
+                        return false;
+                    }
+                } else if(!isDefined(args.get(i), address, defined, commandLine) || (shared && args.get(i).equals(target))){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isDefined(String name, int address, HashMap<String, Integer> defined, List<String> commandLine){
+            Integer definition = defined.get(name);
+            return BBInterpreter.isValidName(name) && (commandLine.contains(name) || (definition != null && definition < address));
+        }
+
+        /**
+          * Copy a statement of the body into the caller
+          *
+          * @param statement Statement of the body
+          * @param address Address of the statement
+          * @param renames New names of parameters and locals
+          * @param target Variable set by returns
+          * @return BBStatement to be run in the caller
+          */
+        BBStatement expand(BBStatement statement, int address, HashMap<String, String> renames, String target){
+            ArrayList<String> args = statement.getArguments();
+            ArrayList<String> words = new ArrayList<String>();
+            if(this.firstAccesses.contains(address) && statement.getOpcode() == BBOpcode.INIT){
+                return assignment(renames.get(args.get(0)), literal(new BBVariable(args.get(2)), false), statement);
+            } else if(this.firstAccesses.contains(address) && statement.getOpcode() == BBOpcode.CLEAR){
+                return assignment(renames.get(args.get(0)), "0", statement);
+            } else if(statement.getOpcode() == BBOpcode.RETURN){
+                words.add(BBOpcode.SET.getKeyword());
+                words.add(target);
+                words.add("=");
+            } else {
+                words.add(statement.getOperation());
+            }
+            for(int i = 0; i < args.size(); i++){
+                String word = args.get(i);
+                String name = word.replace("(", "").replace(")", "");
+                if(statement.isVariable(i) && renames.containsKey(name)){
+                    word = word.replace(name, renames.get(name));
+                }
+                words.add(word);
+            }
+            return new BBStatement(words, statement);
+        }
+    }
+
+    /**
+      * Remove if/elif/else blocks whose condition compares two constants
+      * and can never hold, unwrap blocks that always run first and remove
+      * functions that are never called
+      *
+      * @return int number of statements removed
+      */
+    public int eliminateDeadCode(){
+        ArrayList<BBStatement> statements = this.parser.getStatements();
+        HashSet<String> called = new HashSet<String>();
+        for(BBStatement statement : statements){
+            ArrayList<String> args = statement.getArguments();
+            if(statement.getOpcode() == BBOpcode.FUNC){
+                called.addAll(args.subList(Math.min(1, args.size()), args.size()));
+            } else {
+                called.add(statement.getOperation());
+                called.addAll(args);
+            }
+        }
+        ArrayList<BBStatement> kept = new ArrayList<BBStatement>();
+        ArrayList<Integer> lines = new ArrayList<Integer>();
+        copy(0, statements.size(), called, kept, lines);
+        int removed = statements.size() - kept.size();
+        if(removed > 0){
+            int[] sourceLines = new int[lines.size()];
+            for(int i = 0; i < sourceLines.length; i++){
+                sourceLines[i] = lines.get(i);
+            }
+            this.parser = new BBParser(kept, sourceLines);
+            this.parser.setTemporaries(this.temporaries);
+        }
+        return removed;
+    }
+
+    /**
+      * Copy the live statements of an address range
+      *
+      * @param from First address
+      * @param to Address past the range
+      */
+    private void copy(int from, int to, HashSet<String> called, ArrayList<BBStatement> kept, ArrayList<Integer> lines){
+        int address = from;
+        while(address < to){
+            BBStatement statement = this.parser.getStatement(address);
+            int end = this.parser.getBlockEnd(address);
+            if(statement.getOpcode() == BBOpcode.FUNC && end < to && isUnused(statement, called)){
+                if(this.verbose){
+                    System.out.println("Removed unused function in line " + this.parser.getLine(address) + ": " + statement);
+                }
+                address = end + 1;
+            } else if(statement.getOpcode() == BBOpcode.IF && end < to){
+                address = copyChain(address, to, called, kept, lines);
+            } else {
+                kept.add(statement);
+                lines.add(this.parser.getLine(address));
+                address++;
+            }
+        }
+    }
+
+    /**
+      * Copy the live blocks of an if/elif/else chain
+      *
+      * @param address Address of the if statement
+      * @param to Address past the enclosing range
+      * @return int address past the chain
+      */
+    private int copyChain(int address, int to, HashSet<String> called, ArrayList<BBStatement> kept, ArrayList<Integer> lines){
+        ArrayList<Integer> blocks = new ArrayList<Integer>();
+        int block = address;
+        while(block < to){
+            if(this.parser.getBlockEnd(block) >= to){
+                kept.add(this.parser.getStatement(address));
+                lines.add(this.parser.getLine(address));
+                return address + 1;
+            }
+            blocks.add(block);
+            BBOpcode opcode = this.parser.getStatement(block).getOpcode();
+            block = this.parser.getBlockEnd(block) + 1;
+            if(opcode == BBOpcode.ELSE || block >= to){
+                break;
+            }
+            BBOpcode successor = this.parser.getStatement(block).getOpcode();
+            if(successor != BBOpcode.ELIF && successor != BBOpcode.ELSE){
+                break;
+            }
+        }
+        int exit = block;
+
+        boolean first = true;
+        for(int i = 0; i < blocks.size(); i++){
+            int start = blocks.get(i);
+            int end = this.parser.getBlockEnd(start);
+            BBStatement statement = this.parser.getStatement(start);
+            Boolean runs = statement.getOpcode() == BBOpcode.ELSE ? Boolean.TRUE : runs(statement);
+            if(runs == Boolean.FALSE){
+                report(start);
+                continue;
+            }
+            if(runs == Boolean.TRUE && first){
+                if(this.verbose){
+                    System.out.println("Unwrapped block in line " + this.parser.getLine(start) + ": " + statement.getText());
+                }
+                copy(start + 1, end, called, kept, lines);
+            } else {
+                if(first && statement.getOpcode() == BBOpcode.ELIF){
+                    ArrayList<String> words = words(statement);
+                    words.set(0, BBOpcode.IF.getKeyword());
+                    statement = new BBStatement(words, statement);
+                }
+                kept.add(statement);
+                lines.add(this.parser.getLine(start));
+                copy(start + 1, end, called, kept, lines);
+                kept.add(this.parser.getStatement(end));
+                lines.add(this.parser.getLine(end));
+                first = false;
+            }
+            if(runs == Boolean.TRUE){
+                for(int j = i + 1; j < blocks.size(); j++){
+                    report(blocks.get(j));
+                }
+                break;
+            }
+        }
+        return exit;
+    }
+
+    private void report(int address){
+        if(this.verbose){
+            System.out.println("Removed unreachable block in line " + this.parser.getLine(address) + ": " + this.parser.getStatement(address));
+        }
+    }
+
+    /**
+      * Decide an if or elif condition comparing two literals
+      *
+      * @return Boolean whether the block runs, null if it depends on variables
+      */
+    private static Boolean runs(BBStatement statement){
+        if(statement.getArguments().size() < 3 || !statement.isConstant(0) || !statement.isConstant(2)){
+            return null;
+        }
+        boolean same = statement.getConstant(0).sameValue(statement.getConstant(2));
+        return statement.getArguments().get(1).equals("not") ? !same : same;
+    }
+
+    private static boolean isUnused(BBStatement statement, HashSet<String> called){
+        ArrayList<String> args = statement.getArguments();
+        return !args.isEmpty() && !args.get(0).isEmpty() && Character.isUpperCase(args.get(0).charAt(0)) && !called.contains(args.get(0));
+    }
+
+    private static ArrayList<String> words(BBStatement statement){
+        ArrayList<String> words = new ArrayList<String>();
+        words.add(statement.getOperation());
+        words.addAll(statement.getArguments());
+        return words;
+    }
+
+    /**
+      * Give every counting loop a summary
+      *
+      * @return int number of loops summarised
+      */
+    public int summariseLoops(){
+        ArrayList<BBStatement> statements = this.parser.getStatements();
+        int count = 0;
+        for(int address = 0; address < statements.size(); address++){
+            BBStatement statement = statements.get(address);
+            if(statement.getOpcode() == BBOpcode.WHILE){
+                BBLoopSummary summary = BBLoopSummary.of(this.parser, address);
+                statement.setSummary(summary);
+                if(summary != null){
+                    count++;
+                    if(this.verbose){
+                        System.out.println("Optimised loop in line " + this.parser.getLine(address) + ": " + summary);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -1,5 +1,7 @@
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashSet;
 
 /**
   * BBParser - parses BareBones statements to more useful form
@@ -8,49 +10,187 @@ import java.util.Arrays;
   */
 
 public class BBParser {
-    private final String source;
     private final ArrayList<BBStatement> statements;
+    private final int[] blockEnds;
+    private final int[] branches;
+    private final int[] lines;
+    private final int start;
+    private final int end;
     private int currentStatement = 0;
+    private HashSet<String> temporaries = new HashSet<String>();
 
     /**
       *
       * @param source BareBones source to be parsed
       */
-    public BBParser(String source){
-        this.source = source;
+    public BBParser(CharSequence source){
+        this(new BBLexer(source));
+    }
+
+    /**
+      *
+      * @param source Reader streaming BareBones source to be parsed
+      * @throws UncheckedIOException if the source can't be read
+      */
+    public BBParser(Reader source){
+        this(new BBLexer(source));
+    }
+
+    /**
+      * Create a parser over an already parsed and resolved program
+      *
+      * @param statements Parsed statements
+      * @param blockEnds Matching block addresses, see getBlockEnd
+      * @param branches Branch targets, see getBranch
+      */
+    BBParser(ArrayList<BBStatement> statements, int[] blockEnds, int[] branches){
+        this.statements = statements;
+        this.blockEnds = blockEnds;
+        this.branches = branches;
+        this.lines = null;
+        this.start = 0;
+        this.end = statements.size();
+    }
+
+    /**
+      * Create a parser over statements rewritten by BBOptimizer, resolving
+      * their blocks again
+      *
+      * @param statements Rewritten statements
+      * @param lines Address every statement had in the source, see getLine
+      */
+    BBParser(ArrayList<BBStatement> statements, int[] lines){
+        this.statements = statements;
+        this.blockEnds = new int[statements.size()];
+        this.branches = new int[statements.size()];
+        this.lines = lines;
+        this.start = 0;
+        this.end = statements.size();
+        resolveBlocks();
+    }
+
+    /**
+      * Create a parser over the body of a function, sharing the statements
+      * and jump table of the program. Addresses stay those of the program,
+      * running from start and stopping at end
+      *
+      * @param program Parsed program holding the function
+      * @param start Address of the first statement of the body
+      * @param end Address of the end closing the function
+      */
+    BBParser(BBParser program, int start, int end){
+        this.statements = program.statements;
+        this.blockEnds = program.blockEnds;
+        this.branches = program.branches;
+        this.lines = program.lines;
+        this.temporaries = program.temporaries;
+        this.start = start;
+        this.end = end;
+        this.currentStatement = start;
+    }
+
+    private BBParser(BBLexer lexer){
         this.statements = new ArrayList<BBStatement>();
-        for(String statement : source.split(";")){
-            statement = statement.trim();
-            if(statement.length() > 0 && statement.charAt(0) != '#' && !statement.matches("(^\n$)|(^\r$)|(^\r\n$)")){
-                ArrayList<String> words = new ArrayList<String>(Arrays.asList(statement.split(" ")));
-                words.removeIf(a -> a.equals(""));
-                for(int i = 0; i < words.size(); i++){
-                    String word = words.get(i);
-                    word = word.replace("\n", "").replace("\r", "").trim();
-                    if(word.charAt(0) == '"' && word.charAt(word.length() - 1) != '"'){
-                        String nextWord = word;
-                        int j = 1;
-                        ArrayList<String> toRemove = new ArrayList<String>();
-                        while(nextWord.charAt(nextWord.length() - 1) != '"'){
-                            nextWord += " " + words.get(i + j);
-                            toRemove.add(words.get(i + j));
-                            j++;
-                        }
-                        words.removeIf(a -> toRemove.contains(a));
-                        words.set(i, nextWord);
-                    }
+        ArrayList<String> words = new ArrayList<String>();
+        long offset = 0;
+        BBToken token;
+        while((token = lexer.nextToken()) != null){
+            if(token.getType() != BBToken.SEPARATOR){
+                if(words.isEmpty()){
+                    offset = token.getOffset();
+                }
+                words.add(token.getText());
+                if(token.getType() == BBToken.UNTERMINATED){
+                    System.out.println("Error: unterminated string");
+                    System.out.println("Line " + this.statements.size() + ": " + new BBStatement(words, offset));
+                    System.exit(1);
+                }
+            } else if(!words.isEmpty()){
+                this.statements.add(new BBStatement(words, offset));
+                words = new ArrayList<String>();
+            }
+        }
+        if(!words.isEmpty()){
+            this.statements.add(new BBStatement(words, offset));
+        }
+        this.blockEnds = new int[this.statements.size()];
+        this.branches = new int[this.statements.size()];
+        this.lines = null;
+        this.start = 0;
+        this.end = this.statements.size();
+        resolveBlocks();
+    }
+
+    /**
+      * Build the jump table, matching every block opener with its end
+      * and pointing the end of every if/elif/else block past its whole chain
+      */
+    private void resolveBlocks(){
+        int size = this.statements.size();
+        int[] openers = new int[size];
+        int depth = 0;
+        for(int i = 0; i < size; i++){
+            this.blockEnds[i] = -1;
+            this.branches[i] = -1;
+            BBOpcode opcode = this.statements.get(i).getOpcode();
+            if(opcode.opensBlock()){
+                openers[depth++] = i;
+            } else if(opcode == BBOpcode.END && depth > 0){
+                int opener = openers[--depth];
+                this.blockEnds[opener] = i;
+                this.blockEnds[i] = opener;
+            }
+        }
+        while(depth > 0){
+            this.blockEnds[openers[--depth]] = size;
+        }
+
+        for(int i = 0; i < size; i++){
+            BBOpcode opcode = this.statements.get(i).getOpcode();
+            if(opcode.opensBlock()){
+                this.branches[i] = this.blockEnds[i] + 1;
+            }
+            if(opcode == BBOpcode.WHILE && this.blockEnds[i] < size){
+                this.branches[this.blockEnds[i]] = i;
+            } else if(opcode == BBOpcode.IF){
+                int exit = chainEnd(i) + 1;
+                for(int block = i; block < exit && this.blockEnds[block] < size; block = this.blockEnds[block] + 1){
+                    this.branches[this.blockEnds[block]] = exit;
                 }
-                this.statements.add(new BBStatement(words));
             }
         }
     }
 
+    /**
+      * Find the end of the last block in an if/elif/else chain
+      *
+      * @param address Address of the if statement
+      * @return Address of the end closing the chain
+      */
+    private int chainEnd(int address){
+        int end = this.blockEnds[address];
+        while(end + 1 < this.statements.size()){
+            BBOpcode successor = this.statements.get(end + 1).getOpcode();
+            if(successor == BBOpcode.ELIF){
+                end = this.blockEnds[end + 1];
+            } else if(successor == BBOpcode.ELSE){
+                return this.blockEnds[end + 1];
+            } else {
+                break;
+            }
+        }
+        return end;
+    }
+
     /**
       * Get next statement
       *
       * @return next BBStatement or null if doesn't exist
       */
     public BBStatement nextStatement(){
+        if(this.currentStatement >= this.end){
+            return null;
+        }
         try {
             BBStatement statement = this.statements.get(currentStatement);
             currentStatement++;
@@ -103,9 +243,67 @@ public class BBParser {
     }
 
     /**
-      * Reset the addres to 0
+      * Get the address of the end matching a block opener, or of the
+      * opener matching an end
+      *
+      * @param address Address of the block opener or end
+      * @return int Matching address, -1 if there is none
+      */
+    public int getBlockEnd(int address){
+        return this.blockEnds[address];
+    }
+
+    /**
+      * Get the jump target of a statement. Block openers branch past
+      * their end, while ends branch back to their loop or past their
+      * if/elif/else chain
+      *
+      * @param address Address of the statement
+      * @return int Address to jump to, -1 if the statement doesn't branch
+      */
+    public int getBranch(int address){
+        return this.branches[address];
+    }
+
+    /**
+      * Get the line of a statement as numbered in the source, which
+      * differs from its address once BBOptimizer has removed statements
+      *
+      * @param address Address of the statement
+      * @return int Line reported in error messages
+      */
+    public int getLine(int address){
+        if(this.lines == null || address < 0 || address >= this.lines.length){
+            return address;
+        }
+        return this.lines[address];
+    }
+
+    /**
+      * Set the variables BBOptimizer added to the program, which are left
+      * out when variables are shown to the user
+      *
+      * @param temporaries Names of the added variables
+      */
+    void setTemporaries(HashSet<String> temporaries){
+        this.temporaries = temporaries;
+    }
+
+    /**
+      * Check whether a variable was added by BBOptimizer rather than
+      * written in the source
+      *
+      * @param name Name of the variable
+      * @return true if the variable is hidden from the user
+      */
+    public boolean isTemporary(String name){
+        return this.temporaries.contains(name);
+    }
+
+    /**
+      * Reset the addres to the first statement
       */
     public void reset(){
-        currentStatement = 0;
+        currentStatement = this.start;
     }
 }
\ No newline at end of file
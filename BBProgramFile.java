@@ -0,0 +1,234 @@
+//package com.konradsobczak.bbeat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+  * BBProgramFile - reads and writes parsed programs in the binary .bbc format
+  *
+  * <pre>
+  *     int     magic "BBC" followed by the format version
+  *     byte[]  SHA-256 of the source the program was parsed from
+  *     var     size of the constant pool, then every word as var length + UTF-8 bytes
+  *     var     number of statements, then for every statement:
+  *             byte opcode, var source offset + 1, var operation index,
+  *             var argument count, var index of every argument
+  *     var[]   block ends + 1, one per statement
+  *     var[]   branch targets + 1, one per statement
+  * </pre>
+  * where var is an unsigned variable length integer, 7 bits per byte,
+  * least significant group first
+  *
+  * @author Konrad Sobczak
+  */
+public class BBProgramFile {
+    private static final int MAGIC = 0x42424301;
+    private static final int HASH_LENGTH = 32;
+
+    /**
+      * Get the location of the compiled program belonging to a source file
+      *
+      * @param sourcePath Location of the source file
+      * @return Path of the .bbc file next to the source
+      */
+    public static Path compiledPath(String sourcePath){
+        if(sourcePath.endsWith(".bb")){
+            return Paths.get(sourcePath + "c");
+        }
+        return Paths.get(sourcePath + ".bbc");
+    }
+
+    /**
+      * Write a parsed program
+      *
+      * @param parser Parsed program
+      * @param source Source the program was parsed from
+      * @param path Location of the compiled file
+      * @throws IOException if the file can't be written
+      */
+    public static void write(BBParser parser, CharSequence source, Path path) throws IOException {
+        ArrayList<BBStatement> statements = parser.getStatements();
+        HashMap<String, Integer> pool = new HashMap<String, Integer>();
+        ArrayList<String> words = new ArrayList<String>();
+        for(BBStatement statement : statements){
+            intern(statement.getOperation(), pool, words);
+            for(String argument : statement.getArguments()){
+                intern(argument, pool, words);
+            }
+        }
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))){
+            out.writeInt(MAGIC);
+            out.write(hash(source));
+            writeVar(out, words.size());
+            for(String word : words){
+                byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+                writeVar(out, bytes.length);
+                out.write(bytes);
+            }
+            writeVar(out, statements.size());
+            for(BBStatement statement : statements){
+                out.writeByte(statement.getOpcode().ordinal());
+                writeVar(out, statement.getOffset() + 1);
+                writeVar(out, pool.get(statement.getOperation()));
+                writeVar(out, statement.getArguments().size());
+                for(String argument : statement.getArguments()){
+                    writeVar(out, pool.get(argument));
+                }
+            }
+            for(int i = 0; i < statements.size(); i++){
+                writeVar(out, parser.getBlockEnd(i) + 1);
+            }
+            for(int i = 0; i < statements.size(); i++){
+                writeVar(out, parser.getBranch(i) + 1);
+            }
+        }
+    }
+
+    /**
+      * Read a compiled program if it was compiled from the given source
+      *
+      * @param path Location of the compiled file
+      * @param source Current source of the program
+      * @return BBParser holding the program, or null if there is no
+      *         compiled file or it was compiled from a different source
+      * @throws IOException if the file exists but can't be read, or is
+      *         truncated or corrupt
+      */
+    public static BBParser read(Path path, CharSequence source) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))){
+            long length = Files.size(path);
+            if(in.readInt() != MAGIC){
+                return null;
+            }
+            byte[] hash = new byte[HASH_LENGTH];
+            in.readFully(hash);
+            if(!Arrays.equals(hash, hash(source))){
+                return null;
+            }
+
+            String[] words = new String[readIndex(in, length, path)];
+            for(int i = 0; i < words.length; i++){
+                byte[] bytes = new byte[readIndex(in, length, path)];
+                in.readFully(bytes);
+                words[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            BBOpcode[] opcodes = BBOpcode.values();
+            int size = readIndex(in, length, path);
+            ArrayList<BBStatement> statements = new ArrayList<BBStatement>(size);
+            for(int i = 0; i < size; i++){
+                int ordinal = in.readUnsignedByte();
+                if(ordinal >= opcodes.length){
+                    throw new IOException("Corrupt compiled program: " + path);
+                }
+                BBOpcode opcode = opcodes[ordinal];
+                long offset = readIndex(in, source.length() + 1, path) - 1;
+                ArrayList<String> statementWords = new ArrayList<String>();
+                statementWords.add(words[readIndex(in, words.length, path)]);
+                int arguments = readIndex(in, length, path);
+                for(int j = 0; j < arguments; j++){
+                    statementWords.add(words[readIndex(in, words.length, path)]);
+                }
+                BBStatement statement = new BBStatement(statementWords, offset);
+                if(statement.getOpcode() != opcode){
+                    throw new IOException("Corrupt compiled program: " + path);
+                }
+                statements.add(statement);
+            }
+            int[] blockEnds = new int[size];
+            for(int i = 0; i < size; i++){
+                blockEnds[i] = readIndex(in, size + 2, path) - 1;
+            }
+            int[] branches = new int[size];
+            for(int i = 0; i < size; i++){
+                branches[i] = readIndex(in, size + 3, path) - 1;
+            }
+            return new BBParser(statements, blockEnds, branches);
+        } catch (NoSuchFileException e){
+            return null;
+        }
+    }
+
+    private static void intern(String word, HashMap<String, Integer> pool, ArrayList<String> words){
+        if(!pool.containsKey(word)){
+            pool.put(word, words.size());
+            words.add(word);
+        }
+    }
+
+    private static void writeVar(DataOutputStream out, long value) throws IOException {
+        while((value & ~0x7FL) != 0){
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+      * Read a count or an index into a table
+      *
+      * @param bound Value the number must be below: the size of the table,
+      *        or the length of the file for counts, since every counted item
+      *        takes at least a byte
+      * @param path Location of the compiled file, for the error
+      * @throws IOException if the number is out of range
+      */
+    private static int readIndex(DataInputStream in, long bound, Path path) throws IOException {
+        long value = readVar(in);
+        if(value >= bound){
+            throw new IOException("Corrupt compiled program: " + path);
+        }
+        return (int) value;
+    }
+
+    private static long readVar(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if(shift > 63){
+                throw new IOException("Corrupt compiled program");
+            }
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+        return value;
+    }
+
+    private static byte[] hash(CharSequence source){
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[8192];
+        int position = 0;
+        for(int i = 0; i < source.length(); i++){
+            char c = source.charAt(i);
+            buffer[position++] = (byte) (c >> 8);
+            buffer[position++] = (byte) c;
+            if(position == buffer.length){
+                digest.update(buffer, 0, position);
+                position = 0;
+            }
+        }
+        digest.update(buffer, 0, position);
+        return digest.digest();
+    }
+}
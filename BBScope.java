@@ -0,0 +1,219 @@
+//package com.konradsobczak.bbeat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+  * BBScope - assigns variable names an integer slot at load time
+  *
+  * The main program has a single global scope. A function scope gives
+  * the function's parameters the first slots, refers to names known in
+  * the global scope through global slots and gives every other name a
+  * local slot. Global slots are encoded as negative numbers, see
+  * isGlobal and globalIndex.
+  *
+  * @author Konrad Sobczak
+  */
+public class BBScope {
+    /** Slot of arguments that aren't names */
+    public static final int NONE = -1;
+
+    private static final MathEval math = new MathEval();
+    private static final ConcurrentHashMap<String, MathEval.Expression> expressions = new ConcurrentHashMap<String, MathEval.Expression>();
+
+    private final HashMap<String, Integer> slots = new HashMap<String, Integer>();
+    private final ArrayList<String> names = new ArrayList<String>();
+    private final BBScope globals;
+
+    /**
+      * Create a global scope
+      */
+    public BBScope(){
+        this.globals = null;
+    }
+
+    /**
+      * Create a function scope
+      *
+      * @param globals Global scope of the program
+      * @param parameters Parameters of the function, given the first slots
+      */
+    public BBScope(BBScope globals, List<String> parameters){
+        this.globals = globals;
+        for(String parameter : parameters){
+            local(parameter);
+        }
+    }
+
+    /**
+      * Get the slot of a name, assigning one if it has none yet
+      *
+      * @param name Name of the variable
+      * @return int slot of the variable
+      */
+    public int slot(String name){
+        Integer slot = this.slots.get(name);
+        if(slot != null){
+            return slot;
+        }
+        if(this.globals != null && this.globals.slots.containsKey(name)){
+            return -2 - this.globals.slots.get(name);
+        }
+        return local(name);
+    }
+
+    private int local(String name){
+        Integer slot = this.slots.get(name);
+        if(slot == null){
+            slot = this.names.size();
+            this.slots.put(name, slot);
+            this.names.add(name);
+        }
+        return slot;
+    }
+
+    /**
+      * Resolve the names among the arguments of a statement, stripping
+      * the parentheses of maths expressions. Keywords, maths names and
+      * function names can't hold variables and get no slot
+      *
+      * @param statement Statement to be resolved
+      */
+    public void resolve(BBStatement statement){
+        ArrayList<String> arguments = statement.getArguments();
+        int[] statementSlots = new int[arguments.size()];
+        for(int i = 0; i < statementSlots.length; i++){
+            if(statement.isConstant(i) || statement.getOpcode() == BBOpcode.FUNC){
+                statementSlots[i] = NONE;
+            } else {
+                String name = arguments.get(i).replace("(", "").replace(")", "");
+                if(!name.isEmpty() && (BBInterpreter.isValidName(name) || this.slots.containsKey(name))){
+                    statementSlots[i] = slot(name);
+                } else {
+                    statementSlots[i] = NONE;
+                }
+            }
+        }
+        statement.setSlots(statementSlots);
+        int from = arguments.indexOf("eval") + 1;
+        if(from > 0 && from < arguments.size() && statement.getOpcode() != BBOpcode.FUNC){
+            resolveExpression(statement, from);
+        }
+        if(statement.getSummary() != null){
+            statement.getSummary().resolve(this);
+        }
+    }
+
+    /**
+      * Compile a maths expression, sharing the compiled expression with every
+      * statement, engine and thread evaluating the same text. Compiled
+      * expressions are immutable, so they are evaluated without locking
+      *
+      * @param text Maths expression
+      * @return MathEval.Expression compiled expression
+      * @throws ArithmeticException if the expression is invalid
+      */
+    static MathEval.Expression compile(String text){
+        MathEval.Expression expression = expressions.get(text);
+        if(expression == null){
+            synchronized(math){
+                expression = math.compile(text);
+            }
+            MathEval.Expression shared = expressions.putIfAbsent(text, expression);
+            if(shared != null){
+                expression = shared;
+            }
+        }
+        return expression;
+    }
+
+    /**
+      * Compile the maths expression of an eval and bind its names to the
+      * slots of the words they make up once their parentheses are
+      * stripped, the words a variable's value used to be substituted for.
+      * Expressions that don't compile are left to fail when they run
+      *
+      * @param statement Statement holding the expression
+      * @param from Index of the first word of the expression
+      */
+    private void resolveExpression(BBStatement statement, int from){
+        ArrayList<String> arguments = statement.getArguments();
+        MathEval.Expression expression = statement.getExpression();
+        if(expression == null){
+            try {
+                expression = compile(String.join(" ", arguments.subList(from, arguments.size())));
+            } catch (Exception e){
+                return;
+            }
+        }
+        String[] names = expression.getVariables();
+        int[] expressionSlots = new int[names.length];
+        for(int i = 0; i < names.length; i++){
+            expressionSlots[i] = NONE;
+            for(int word = from; word < arguments.size(); word++){
+                if(arguments.get(word).replace("(", "").replace(")", "").equals(names[i])){
+                    expressionSlots[i] = statement.getSlot(word);
+                    break;
+                }
+            }
+        }
+        statement.setExpression(expression, expressionSlots);
+    }
+
+    /**
+      * Get the number of local slots
+      *
+      * @return int number of slots
+      */
+    public int size(){
+        return this.names.size();
+    }
+
+    /**
+      * Get the name of a local slot
+      *
+      * @param slot Local slot
+      * @return String name of the variable
+      */
+    public String getName(int slot){
+        return this.names.get(slot);
+    }
+
+    /**
+      * Check whether a slot refers to the global scope
+      *
+      * @param slot Slot of a name
+      * @return true if it is a global slot
+      */
+    public static boolean isGlobal(int slot){
+        return slot < NONE;
+    }
+
+    /**
+      * Get the index of a global slot in the global variables
+      *
+      * @param slot Global slot
+      * @return int index in the global scope
+      */
+    public static int globalIndex(int slot){
+        return -2 - slot;
+    }
+
+    /**
+      * Map names to their values, for verbose output
+      *
+      * @param variables Values of the local slots
+      * @return HashMap<String, BBVariable> of initialised variables
+      */
+    public HashMap<String, BBVariable> toMap(BBVariable[] variables){
+        HashMap<String, BBVariable> map = new HashMap<String, BBVariable>();
+        for(int i = 0; i < variables.length; i++){
+            if(variables[i] != null){
+                map.put(this.names.get(i), variables[i]);
+            }
+        }
+        return map;
+    }
+}
@@ -9,8 +9,18 @@ import java.util.ArrayList;
   */
 public class BBStatement{
     private final String operation;
+    private final BBOpcode opcode;
     private final ArrayList<String> arguments;
+    private final BBVariable[] constants;
+    private final boolean[] values;
     private final String text;
+    private final String source;
+    private final long offset;
+    private int[] slots;
+    private BBLoopSummary summary;
+    private BBFunction function;
+    private MathEval.Expression expression;
+    private int[] expressionSlots;
 
     /**
       * Create new statement
@@ -18,13 +28,56 @@ public class BBStatement{
       * @param words Words to be parsed into statement
       */
     public BBStatement(ArrayList<String> words){
+        this(words, -1);
+    }
+
+    /**
+      * Create new statement
+      *
+      * @param words Words to be parsed into statement
+      * @param offset Source offset of the first word
+      */
+    public BBStatement(ArrayList<String> words, long offset){
+        this(words, offset, null);
+    }
+
+    /**
+      * Create a statement rewriting another, which keeps the source offset
+      * and text of the original for error messages
+      *
+      * @param words Words to be parsed into statement
+      * @param original Statement as written in the source
+      */
+    public BBStatement(ArrayList<String> words, BBStatement original){
+        this(words, original.getOffset(), original.toString());
+    }
+
+    private BBStatement(ArrayList<String> words, long offset, String source){
+        this.offset = offset;
+        this.source = source;
+        for(int i = 0; i < words.size(); i++){
+            words.set(i, words.get(i).trim());
+        }
         this.text = String.join(" ", words);
-        this.operation = words.get(0).trim();
+        this.operation = words.get(0);
+        this.opcode = BBOpcode.of(this.operation);
         words.remove(0);
-        for(String word : words){
-            word = word.trim();
-        }
         this.arguments = words;
+        this.constants = new BBVariable[words.size()];
+        this.values = new boolean[words.size()];
+        for(int i = 0; i < words.size(); i++){
+            String word = words.get(i);
+            if(isLiteral(word)){
+                this.constants[i] = new BBVariable(word);
+                // A string followed by more words joins them, so only a last
+                // string is known as a value before the statement runs
+                if(i == words.size() - 1){
+                    this.values[i] = word.matches("(^true$)|(^false$)|(^\".*\"$)|(^[0-9]*\\.?[0-9]?)");
+                } else {
+                    this.values[i] = word.matches("^[0-9]*\\.?[0-9]?");
+                }
+            }
+        }
     }
 
     /**
@@ -46,7 +99,82 @@ public class BBStatement{
     }
 
     /**
-      * Get the statement text
+      * Gets the resolved operation
+      *
+      * @return BBOpcode of the operation
+      */
+    public BBOpcode getOpcode(){
+        return this.opcode;
+    }
+
+    /**
+      * Check whether an argument is a literal rather than a name
+      *
+      * @param index Index of the argument
+      * @return true if the argument is a number, string or boolean literal
+      */
+    public boolean isConstant(int index){
+        return this.constants[index] != null;
+    }
+
+    /**
+      * Check whether an argument is a literal the interpreters take as the
+      * value of an expression. Literals such as -5 or 12.34 are constants
+      * but not values, as they are invalid there
+      *
+      * @param index Index of the argument
+      * @return true if the argument is a constant value
+      */
+    public boolean isValue(int index){
+        return this.values[index];
+    }
+
+    /**
+      * Check whether an argument is read or written as a variable, rather
+      * than being a literal or a keyword such as =, then or eval
+      *
+      * @param index Index of the argument
+      * @return true if the argument names a variable
+      */
+    public boolean isVariable(int index){
+        if(isConstant(index) || this.arguments.get(index).equals("eval")){
+            return false;
+        }
+        switch(this.opcode){
+            case INCR:
+            case DECR:
+            case CLEAR:
+            case INIT:
+                return index == 0;
+            case SET:
+                return index != 1;
+            case COPY:
+            case WHILE:
+            case IF:
+            case ELIF:
+                return index == 0 || index == 2;
+            case ELSE:
+            case END:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+      * Gets the value of a literal argument, parsed once. The value is
+      * shared by every execution of the statement and must not be modified
+      *
+      * @param index Index of the argument
+      * @return BBVariable value or null if the argument is a name
+      */
+    public BBVariable getConstant(int index){
+        return this.constants[index];
+    }
+
+    /**
+      * Get the statement text as it runs, which differs from toString once
+      * BBOptimizer has rewritten the statement
       * 
       * @return String statement text
       */
@@ -54,7 +182,130 @@ public class BBStatement{
         return this.text;
     }
 
+    /**
+      * Get the source offset of the statement
+      *
+      * @return long offset of the first word, -1 if unknown
+      */
+    public long getOffset(){
+        return this.offset;
+    }
+
+    /**
+      * Set the variable slots of the arguments, assigned by BBScope
+      *
+      * @param slots Slot of every argument, BBScope.NONE for literals
+      */
+    public void setSlots(int[] slots){
+        this.slots = slots;
+    }
+
+    /**
+      * Gets the variable slot of an argument
+      *
+      * @param index Index of the argument
+      * @return int slot, BBScope.NONE if the argument isn't a name
+      */
+    public int getSlot(int index){
+        return this.slots[index];
+    }
+
+    /**
+      * Set the summary to run a while statement's loop in constant time
+      *
+      * @param summary Summary of the loop, null to interpret it
+      */
+    public void setSummary(BBLoopSummary summary){
+        this.summary = summary;
+    }
+
+    /**
+      * Gets the summary of a while statement's loop
+      *
+      * @return BBLoopSummary or null if the loop is interpreted
+      */
+    public BBLoopSummary getSummary(){
+        return this.summary;
+    }
+
+    /**
+      * Cache the function a call resolved to. Redefining a function
+      * updates the BBFunction in place, so the cache stays valid
+      *
+      * @param function Function called by the statement
+      */
+    public void setFunction(BBFunction function){
+        this.function = function;
+    }
+
+    /**
+      * Gets the function the statement's call was resolved to
+      *
+      * @return BBFunction or null if not resolved yet
+      */
+    public BBFunction getFunction(){
+        return this.function;
+    }
+
+    /**
+      * Set the compiled maths expression of an eval, assigned by BBScope. A
+      * statement holds at most one eval, which runs to the end of the
+      * statement
+      *
+      * @param expression Compiled expression
+      * @param slots Slot of every named value of the expression,
+      *              BBScope.NONE for names that aren't variables
+      */
+    public void setExpression(MathEval.Expression expression, int[] slots){
+        this.expression = expression;
+        this.expressionSlots = slots;
+    }
+
+    /**
+      * Gets the compiled maths expression of the statement's eval
+      *
+      * @return MathEval.Expression or null if it doesn't compile
+      */
+    public MathEval.Expression getExpression(){
+        return this.expression;
+    }
+
+    /**
+      * Gets the variable slot of a named value of the compiled expression
+      *
+      * @param index Index of the name in the expression
+      * @return int slot of the variable or BBScope.NONE
+      */
+    public int getExpressionSlot(int index){
+        return this.expressionSlots[index];
+    }
+
+    /**
+      * Get the statement as written in the source, for error messages
+      *
+      * @return String source text of the statement
+      */
     public String toString(){
+        if(this.source != null){
+            return this.source;
+        }
         return String.join(" ", this.operation, String.join(" ", this.arguments));
     }
-}
\ No newline at end of file
+
+    /**
+      * Check whether a word is a literal rather than a name
+      *
+      * @param word Word to be checked
+      * @return true if the word is a number, string or boolean literal
+      */
+    static boolean isLiteral(String word){
+        if(word.isEmpty()){
+            return false;
+        }
+        char first = word.charAt(0);
+        if(first == '-' && word.length() > 1){
+            first = word.charAt(1);
+        }
+        return Character.isDigit(first) || first == '"' || word.equals("true") || word.equals("false");
+    }
+}
@@ -0,0 +1,66 @@
+//package com.konradsobczak.bbeat;
+
+/**
+  * BBToken - single lexical token of BareBones source
+  *
+  * @author Konrad Sobczak
+  */
+public class BBToken {
+    /** Plain word: keyword, name, number or operator */
+    public static final int WORD = 0;
+    /** Double quoted string, quotes included */
+    public static final int STRING = 1;
+    /** Statement separator ';' */
+    public static final int SEPARATOR = 2;
+    /** Double quoted string without its closing quote, up to the next ';' */
+    public static final int UNTERMINATED = 3;
+
+    private final int type;
+    private final String text;
+    private final long offset;
+
+    /**
+      * Create new token
+      *
+      * @param type Token type, one of WORD, STRING, SEPARATOR or
+      *             UNTERMINATED
+      * @param text Token text
+      * @param offset Offset of the first character in the source
+      */
+    public BBToken(int type, String text, long offset){
+        this.type = type;
+        this.text = text;
+        this.offset = offset;
+    }
+
+    /**
+      * Get the token type
+      *
+      * @return int WORD, STRING, SEPARATOR or UNTERMINATED
+      */
+    public int getType(){
+        return this.type;
+    }
+
+    /**
+      * Get the token text
+      *
+      * @return String text of the token
+      */
+    public String getText(){
+        return this.text;
+    }
+
+    /**
+      * Get the source offset
+      *
+      * @return long offset of the first character of the token
+      */
+    public long getOffset(){
+        return this.offset;
+    }
+
+    public String toString(){
+        return this.text + "@" + this.offset;
+    }
+}
@@ -5,14 +5,24 @@
 /**
   * BBVariable - Variables in BareBones
   *
+  * Values are held unboxed: whole numbers and booleans in a long, decimals
+  * in a double and strings as they are, with a byte tag telling which one
+  * is in use.
+  *
   * @author Konrad Sobczak
   */
 public class BBVariable {
-    private Integer integerValue;
+    public static final byte INT = 0;
+    public static final byte DOUBLE = 1;
+    public static final byte BOOL = 2;
+    public static final byte STR = 3;
+
+    private static final String[] typeNames = {"int", "double", "bool", "str"};
+
+    private long longValue;
+    private double doubleValue;
     private String stringValue;
-    private Double doubleValue;
-    private Boolean booleanValue;
-    private String type;
+    private byte type;
 
 
     /**
@@ -25,77 +35,227 @@ public class BBVariable {
     }
 
     /**
-      * Set variable value 
+      * Create a copy of a BBVariable
+      *
+      * @param value Variable to be copied
+      */
+    public BBVariable(BBVariable value){
+        this.set(value);
+    }
+
+    /**
+      * Set variable value to the value of another variable
+      * @param value Variable to be copied
+      */
+    public void set(BBVariable value){
+        this.longValue = value.longValue;
+        this.doubleValue = value.doubleValue;
+        this.stringValue = value.stringValue;
+        this.type = value.type;
+    }
+
+    /**
+      * Set variable value to a number, whole numbers becoming int as when
+      * parsed by setValue
+      * @param value Value to be set
+      */
+    public void setDouble(double value){
+        this.stringValue = null;
+        if(value == Math.floor(value)){
+            this.longValue = (int) Math.round(value);
+            this.type = INT;
+        } else {
+            this.doubleValue = value;
+            this.type = DOUBLE;
+        }
+    }
+
+    /**
+      * Set variable value to a whole number, wrapping around like increment
+      * and decrement do
+      * @param value Value to be set
+      */
+    public void setLong(long value){
+        this.stringValue = null;
+        this.longValue = (int) value;
+        this.type = INT;
+    }
+
+    /**
+      * Set variable value to an exact result of MathEval, if there is one
+      * and it fits in an int. Other results are left to setDouble, so they
+      * round and wrap as evaluated results always have
+      * @param value Long, BigInteger or null
+      * @return true if the value was set
+      */
+    public boolean setExact(Number value){
+        if(!(value instanceof Long) || value.longValue() != (int) value.longValue()){
+            return false;
+        }
+        this.setLong(value.longValue());
+        return true;
+    }
+
+    /**
+      * Set variable value
       * @param value Value to be set
       */
     public void setValue(String value){
         value = value.replace("\"", "");
-        this.integerValue = null;
-        this.doubleValue = null;
         this.stringValue = null;
-        this.booleanValue = null;
+        if(isSmallNatural(value)){
+            this.longValue = Integer.parseInt(value);
+            this.type = INT;
+            return;
+        }
         try {
-            this.integerValue = Integer.parseInt(value);
-            this.type = "int";
-            if(this.integerValue < 0){
+            int integerValue = Integer.parseInt(value);
+            if(integerValue < 0){
               throw new Exception("Invalid value");
             }
+            this.longValue = integerValue;
+            this.type = INT;
         } catch (Exception e){
             try {
-                this.doubleValue = Double.parseDouble(value);
-                if(this.doubleValue == Math.floor(this.doubleValue)){
-                    this.integerValue = (int) Math.round(this.doubleValue);
-                    this.doubleValue = null;
-                    this.type = "int";
+                double parsed = Double.parseDouble(value);
+                if(parsed == Math.floor(parsed)){
+                    this.longValue = (int) Math.round(parsed);
+                    this.type = INT;
                 } else {
-                    this.type = "double";
+                    this.doubleValue = parsed;
+                    this.type = DOUBLE;
                 }
             } catch (Exception e2){
                 if(value.equals("true") || value.equals("false")){
-                    this.booleanValue = value.equals("true") ? true : false;
-                    this.type = "bool";
+                    this.longValue = value.equals("true") ? 1 : 0;
+                    this.type = BOOL;
                 } else {
                     this.stringValue = value;
-                    this.type = "str";
+                    this.type = STR;
                 }
             }
         }
     }
 
+    /**
+      * Check whether a value is a whole number that can be parsed without
+      * falling back to the slower paths of setValue
+      */
+    private static boolean isSmallNatural(String value){
+        int length = value.length();
+        if(length == 0 || length > 9){
+            return false;
+        }
+        for(int i = 0; i < length; i++){
+            char c = value.charAt(i);
+            if(c < '0' || c > '9'){
+                return false;
+            }
+        }
+        return true;
+    }
+
 
     /**
       * Get the value of the variable
       *
-      * @return int|double|String value
+      * @return int|double|boolean|String value, boxed
       */
     public <T> T getValue(){
-        if(integerValue != null){
-            return (T) integerValue;
-        } else if(doubleValue != null){
-            return (T) doubleValue;
-        } else if(booleanValue != null){
-            return (T) booleanValue;
-        } else {
-            return (T) stringValue;
+        switch(this.type){
+            case INT:
+                return (T) Integer.valueOf((int) this.longValue);
+            case DOUBLE:
+                return (T) Double.valueOf(this.doubleValue);
+            case BOOL:
+                return (T) Boolean.valueOf(this.longValue != 0);
+            default:
+                return (T) this.stringValue;
+        }
+    }
+
+    /**
+      * Get the value formatted for printing
+      *
+      * @return String value
+      */
+    public String getString(){
+        switch(this.type){
+            case INT:
+                return Long.toString(this.longValue);
+            case DOUBLE:
+                return Double.toString(this.doubleValue);
+            case BOOL:
+                return this.longValue != 0 ? "true" : "false";
+            default:
+                return this.stringValue;
         }
     }
 
+    /**
+      * Get the value of a whole number or boolean variable
+      *
+      * @return long value, 1 or 0 for booleans
+      */
+    public long getLong(){
+        return this.longValue;
+    }
+
+    /**
+      * Get the value of a numeric variable
+      *
+      * @return double value
+      */
+    public double getDouble(){
+        return this.type == DOUBLE ? this.doubleValue : this.longValue;
+    }
+
     /**
       * Get type of the variable
       *
       * @return String type
       */
     public String getType(){
+        return typeNames[this.type];
+    }
+
+    /**
+      * Get the type tag of the variable
+      *
+      * @return byte INT, DOUBLE, BOOL or STR
+      */
+    public byte getTag(){
         return this.type;
     }
 
+    /**
+      * Check whether two variables hold the same value. Values of
+      * different types are never equal
+      *
+      * @param other Variable to be compared with
+      * @return true if type and value are the same
+      */
+    public boolean sameValue(BBVariable other){
+        if(this.type != other.type){
+            return false;
+        }
+        switch(this.type){
+            case DOUBLE:
+                return this.doubleValue == other.doubleValue;
+            case STR:
+                return this.stringValue.equals(other.stringValue);
+            default:
+                return this.longValue == other.longValue;
+        }
+    }
+
     /**
       * increment this variable
       */
     public boolean increment(){
-        if(type.equals("int")){
-            this.integerValue++;
-        } else if(type.equals("double")){
+        if(this.type == INT){
+            this.longValue = (int) (this.longValue + 1);
+        } else if(this.type == DOUBLE){
             this.doubleValue++;
         } else {
             return false;
@@ -107,9 +267,9 @@ public class BBVariable {
       * decrement this variable
       */
     public boolean decrement(){
-        if(type.equals("int")){
-            this.integerValue--;
-        } else if(type.equals("double")){
+        if(this.type == INT){
+            this.longValue = (int) (this.longValue - 1);
+        } else if(this.type == DOUBLE){
             this.doubleValue--;
         } else {
             return false;
@@ -121,9 +281,9 @@ public class BBVariable {
       * clear this variable
       */
     public boolean clear(){
-        if(type.equals("int")){
-            this.integerValue = 0;
-        } else if(type.equals("double")){
+        if(this.type == INT){
+            this.longValue = 0;
+        } else if(this.type == DOUBLE){
             this.doubleValue = 0.0;
         } else {
             return false;
@@ -132,6 +292,6 @@ public class BBVariable {
     }
 
     public String toString(){
-        return "\033[3m" + this.getType() + "\033[0m: " + this.getValue();
+        return "\033[3m" + this.getType() + "\033[0m: " + this.getString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+//package com.konradsobczak.bbeat;
+
+/**
+  * BBVirtualMachine - executes BBBytecode
+  *
+  * @author Konrad Sobczak
+  */
+public class BBVirtualMachine implements BBEngine {
+    private final BBBytecode program;
+    private final int[] registers;
+    private final boolean[] defined;
+
+    /**
+      * Create a new virtual machine for a compiled program
+      *
+      * @param program Compiled program
+      */
+    public BBVirtualMachine(BBBytecode program){
+        this.program = program;
+        this.registers = program.registers.clone();
+        this.defined = program.defined.clone();
+    }
+
+    /**
+      * Compile a program and create a virtual machine for it
+      *
+      * @param parser Parsed program
+      * @param args Arguments given to main function
+      * @return BBVirtualMachine or null if the program can't be compiled
+      */
+    public static BBVirtualMachine create(BBParser parser, String[] args){
+        BBBytecode program = BBCompiler.compile(parser, args);
+        return program != null ? new BBVirtualMachine(program) : null;
+    }
+
+    /**
+      * Execute entire program, stopping at the first statement that fails
+      * as BBInterpreter does
+      * @return true if all statements executed correctly
+      */
+    public boolean executeSource(){
+        final int[] code = this.program.code;
+        final int[] r = this.registers;
+        int pc = 0;
+        while(true){
+            switch(code[pc]){
+                case BBBytecode.CLEAR:
+                    r[code[pc + 1]] = 0;
+                    this.defined[code[pc + 1]] = true;
+                    pc += 2;
+                    break;
+                case BBBytecode.INCR:
+                    r[code[pc + 1]]++;
+                    pc += 2;
+                    break;
+                case BBBytecode.DECR:
+                    r[code[pc + 1]]--;
+                    pc += 2;
+                    break;
+                case BBBytecode.COPY:
+                    if(!this.defined[code[pc + 1]]){
+                        System.out.print("Error: Variable not found");
+                        error(pc);
+                        return false;
+                    }
+                    r[code[pc + 2]] = r[code[pc + 1]];
+                    this.defined[code[pc + 2]] = true;
+                    pc += 3;
+                    break;
+                case BBBytecode.INIT:
+                    if(this.defined[code[pc + 1]]){
+                        System.out.println("Error: trying to initialise an existing variable " + this.program.names[code[pc + 1]]);
+                        error(pc);
+                        System.exit(1);
+                    }
+                    r[code[pc + 1]] = r[code[pc + 2]];
+                    this.defined[code[pc + 1]] = true;
+                    pc += 3;
+                    break;
+                case BBBytecode.JEQ:
+                    pc = same(code[pc + 1], code[pc + 2]) ? code[pc + 3] : pc + 4;
+                    break;
+                case BBBytecode.JNE:
+                    pc = !same(code[pc + 1], code[pc + 2]) ? code[pc + 3] : pc + 4;
+                    break;
+                case BBBytecode.JMP:
+                    pc = code[pc + 1];
+                    break;
+                case BBBytecode.PRINT:
+                    if(!print(pc)){
+                        return false;
+                    }
+                    pc += 2 + code[pc + 1];
+                    break;
+                case BBBytecode.HALT:
+                    return true;
+                default:
+                    throw new IllegalStateException("Invalid instruction " + code[pc] + " at " + pc);
+            }
+        }
+    }
+
+    /**
+      * Compare two registers. A variable that isn't defined stands for its
+      * name, as BBInterpreter reads it, so it only equals itself
+      *
+      * @return true if the operands are the same
+      */
+    private boolean same(int left, int right){
+        boolean leftDefined = left >= this.defined.length || this.defined[left];
+        boolean rightDefined = right >= this.defined.length || this.defined[right];
+        if(leftDefined && rightDefined){
+            return this.registers[left] == this.registers[right];
+        }
+        return left == right;
+    }
+
+    /**
+      * Print the items of a PRINT instruction
+      *
+      * @param pc Address of the instruction
+      * @return true if successful
+      */
+    private boolean print(int pc){
+        int[] code = this.program.code;
+        int count = code[pc + 1];
+        for(int i = 0; i < count; i++){
+            int item = code[pc + 2 + i];
+            String text;
+            if(item < 0){
+                text = this.program.strings[-item - 1];
+            } else if(this.defined[item]){
+                text = "" + this.registers[item];
+            } else {
+                System.out.print("Error: Variable not found");
+                error(pc);
+                return false;
+            }
+            if(i == count - 1){
+                System.out.println(text);
+            } else {
+                System.out.print(text + " ");
+            }
+        }
+        return true;
+    }
+
+    private void error(int pc){
+        int address = this.program.addresses[pc];
+        System.out.print("Line " + this.program.parser.getLine(address) + ": ");
+        System.out.println(this.program.parser.getStatement(address));
+    }
+
+}
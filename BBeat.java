@@ -1,6 +1,9 @@
 //package com.konradsobczak.bbeat;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 
 /**
   * BBEAT - BareBones (Extended) Awful Interpreter
@@ -10,7 +13,14 @@ import java.io.FileNotFoundException;
 
 public class BBeat {
     /**
-      * @param args predefined variables, options and filepath for source
+      * @param args predefined variables, options and filepath for source ("-" for stdin).
+      *             -c writes the parsed program next to the source as a .bbc file,
+      *             which is then used instead of parsing while the source is unchanged.
+      *             -engine=vm runs the program on BBVirtualMachine, -engine=jvm as a
+      *             generated JVM class and -engine=closure on BBClosureEngine, whenever
+      *             the program can be compiled for them.
+      *             -O0 runs the program as written, without BBOptimizer.
+      *             -inline=N inlines functions of at most N statements, 0 for none
       */
 
     public static void main(String[] args){
@@ -18,15 +28,70 @@ public class BBeat {
             System.out.println("Error: No source file given!");
             System.exit(1);
         }
-        String source = "";
+        Charset charset = Charset.defaultCharset();
+        boolean compile = false;
+        String engine = "interpreter";
+        for(String arg : args){
+            if(arg.equals("-c")){
+                compile = true;
+            } else if(arg.startsWith("-engine=")){
+                engine = arg.substring(arg.indexOf("=") + 1);
+            } else if(arg.startsWith("-charset=")){
+                try {
+                    charset = Charset.forName(arg.substring(arg.indexOf("=") + 1));
+                } catch (IllegalArgumentException e){
+                    System.out.println("Error: Unsupported charset " + arg.substring(arg.indexOf("=") + 1));
+                    System.exit(1);
+                }
+            }
+        }
+        String path = args[args.length - 1];
+        CharSequence source = "";
         try {
-            source = FileReader.read(args[args.length - 1]);
-        } catch (FileNotFoundException e){
+            source = FileReader.read(path, charset);
+        } catch (NoSuchFileException e){
             System.out.println("Error: Source file not found");
             System.exit(1);
+        } catch (IOException e){
+            System.out.println("Error: Source file could not be read: " + e.getMessage());
+            System.exit(1);
+        }
+        BBParser parser = null;
+        Path compiledPath = BBProgramFile.compiledPath(path);
+        if(!path.equals(FileReader.STDIN)){
+            try {
+                parser = BBProgramFile.read(compiledPath, source);
+            } catch (IOException e){
+                // truncated or corrupt, treated like a program of another source
+                parser = null;
+            }
+        }
+        if(parser == null){
+            parser = new BBParser(source);
+            if(compile && !path.equals(FileReader.STDIN)){
+                try {
+                    BBProgramFile.write(parser, source, compiledPath);
+                } catch (IOException e){
+                    System.out.println("Error: Compiled program could not be written: " + e.getMessage());
+                }
+            }
+        }
+        parser = BBOptimizer.optimize(parser, args);
+        BBEngine program = null;
+        if(engine.equals("vm")){
+            program = BBVirtualMachine.create(parser, args);
+        } else if(engine.equals("jvm")){
+            program = BBClassGenerator.compile(parser, args);
+        } else if(engine.equals("closure")){
+            program = BBClosureEngine.create(parser, args);
+        } else if(!engine.equals("interpreter")){
+            System.out.println("Error: Unknown engine " + engine);
+            System.exit(1);
+        }
+        if(program == null){
+            program = new BBInterpreter(parser, args);
         }
-        BBInterpreter interpreter = new BBInterpreter(source, args);
-        boolean success = interpreter.executeSource();
+        boolean success = program.executeSource();
         if(success){
             System.exit(0);
         } else {
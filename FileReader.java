@@ -1,28 +1,71 @@
 //package com.konradsobczak.bbeat;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
-  * FileReader - reads file and puts it in a single string
+  * FileReader - reads file and puts it in a single character sequence
   *
   * @author Konrad Sobczak
   */
 public class FileReader {
+    /** Path standing for the standard input */
+    public static final String STDIN = "-";
+
+    /** Files of at least this many bytes are memory mapped instead of read */
+    private static final long MAP_THRESHOLD = 1 << 20;
+
     /**
-      * Read the file at provided path
+      * Read the file at provided path using the default charset
       *
-      * @param path Location of the file
+      * @param path Location of the file, or "-" for the standard input
       * @return The contents of the file
-      * @throws FileNotFoundException
+      * @throws IOException if the file can't be read or decoded
       */
-    public static String read(String path) throws FileNotFoundException {
-        String content = "";
-        Scanner scanner = new Scanner(new FileInputStream(path));
-        while(scanner.hasNext()){
-            content += scanner.nextLine();
+    public static CharSequence read(String path) throws IOException {
+        return read(path, Charset.defaultCharset());
+    }
+
+    /**
+      * Read the file at provided path. Small files are read in one go,
+      * large ones are memory mapped, and the bytes are decoded only once
+      *
+      * @param path Location of the file, or "-" for the standard input
+      * @param charset Charset the file is encoded in
+      * @return The contents of the file
+      * @throws IOException if the file can't be read or decoded
+      */
+    public static CharSequence read(String path, Charset charset) throws IOException {
+        if(path.equals(STDIN)){
+            return decode(ByteBuffer.wrap(System.in.readAllBytes()), charset);
+        }
+        try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE){
+                throw new IOException("File too large: " + path);
+            }
+            ByteBuffer bytes;
+            if(size >= MAP_THRESHOLD){
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while(bytes.hasRemaining() && channel.read(bytes) != -1);
+                bytes.flip();
+            }
+            return decode(bytes, charset);
         }
-        return content;
     }
-}
\ No newline at end of file
+
+    private static CharSequence decode(ByteBuffer bytes, Charset charset) throws CharacterCodingException {
+        return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT)
+            .decode(bytes);
+    }
+}
@@ -14,6 +14,8 @@
 
 import java.math.*;
 import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 /**
  * Math Evaluator.  Provides the ability to evaluate a String math expression, with support for pureFunctions, variables and
@@ -83,7 +85,20 @@ import java.util.*;
  *   <li>ulp
  * </ul>
  * <p>
+ * Expressions which are evaluated repeatedly can be compiled once with compile(), which parses the expression into a tree of
+ * operations.  Evaluating the compiled expression then costs only the arithmetic, with variables looked up as it is evaluated;
+ * the variables of the caller can be bound to the named values of the expression by index, so the expression text never changes.
+ * Calls of the default functions are bound to the java.lang.Math method when compiling, so they cost no more than the method.
+ * A compiled expression which only combines integers with + - * / % ^ can be evaluated exactly with evaluateExact(), in long
+ * arithmetic while the values fit and in BigInteger once they overflow, where evaluating in double would lose precision above 2^53.
+ * <p>
+ * A compiled expression can also be evaluated over a batch of rows given as a column of values for each of its named values,
+ * filling an array of results; large batches are split across the available processors.
+ * <p>
  * Threading Design : [x] Single Threaded  [ ] Threadsafe  [ ] Immutable  [ ] Isolated
+ * <p>
+ * Compiled expressions are immutable and threadsafe: they capture the constants of the evaluator when compiled and take variable
+ * values from the bindings given to each evaluation, so one compiled expression may be evaluated by many threads at once.
  *
  * @author          Lawrence Dol
  * @since           Build 2008.0426.1016
@@ -108,6 +123,8 @@ private String                          separators;
 private String                          expression;                                                 // expression being evaluated
 private int                             offset;                                                     // used when returning from a higher precedence sub-expression evaluation
 private boolean                         isConstant;                                                 // last expression evaluated is constant
+private List<String>                    names;                                                      // named values of the expression being compiled
+private boolean                         impure;                                                     // expression being compiled calls impure functions
 
 // *************************************************************************************************
 // INSTANCE CREATE/DELETE
@@ -301,6 +318,54 @@ public double evaluate(String exp) throws NumberFormatException, ArithmeticExcep
     return _evaluate(0,(exp.length()-1));
     }
 
+/**
+ * Compile this expression for repeated evaluation with evaluate(Expression).
+ * <p>
+ * Constant sub-expressions are evaluated once, when compiling; named values other than constants are looked up each time the
+ * expression is evaluated.
+ */
+public Expression compile(String exp) throws NumberFormatException, ArithmeticException {
+    expression=exp;
+    offset=0;
+    names=new ArrayList<String>();
+    impure=false;
+    try {
+        Node                            root=_compile(0,(exp.length()-1));
+        String[]                        nams=names.toArray(new String[names.size()]);
+        Double[]                        csts=new Double[nams.length];
+
+        for(int xa=0; xa<nams.length; xa++) { csts[xa]=constants.get(nams[xa]); }
+        return new Expression(exp,root,nams,csts,impure);
+        }
+    finally {
+        names=null;
+        }
+    }
+
+/**
+ * Evaluate a compiled expression with the current variables.
+ */
+public double evaluate(Expression exp) throws ArithmeticException {
+    return evaluate(exp,null);
+    }
+
+/**
+ * Evaluate a compiled expression, taking the values of its named values from the bindings where they are bound and from the
+ * variables of this evaluator and the constants captured by the expression otherwise.
+ */
+public double evaluate(Expression exp, Bindings bnd) throws ArithmeticException {
+    VariableBindings                    vrb=new VariableBindings(exp.names,bnd);
+    double                              ret;
+
+    expression=exp.text;
+    ret=exp.root.evaluate(vrb);
+    isConstant=!exp.impure;
+    for(int xa=0; xa<exp.names.length; xa++) {
+        if(vrb.isBound(xa) || exp.constants[xa]==null) { isConstant=false; }
+        }
+    return ret;
+    }
+
 /**
  * Return whether the previous expression evaluated was constant (i.e. contained no variables).
  * This is useful when optimizing to store the result instead of repeatedly evaluating a constant expression like "2+2".
@@ -430,6 +495,179 @@ private double _evaluate(int beg, int end, double lft, Operator pnd, Operator cu
     return lft;
     }
 
+/**
+ * Compile a complete (sub-)expression.
+ * @param beg       Inclusive begin offset for subexpression.
+ * @param end       Inclusive end offset for subexpression.
+ */
+private Node _compile(int beg, int end) throws NumberFormatException, ArithmeticException {
+    return _compile(beg,end,ZERO,OPERAND,getOperator('='));
+    }
+
+/**
+ * Compile the next operand of an expression, following _evaluate() but building operations instead of performing them.
+ * @param beg       Inclusive begin offset for subexpression.
+ * @param end       Inclusive end offset for subexpression.
+ * @param pnd       Pending operator (operator previous to this subexpression).
+ * @param lft       Left-value with which to initialize this subexpression.
+ * @param cur       Current operator (the operator for this subexpression).
+ */
+private Node _compile(int beg, int end, Node lft, Operator pnd, Operator cur) throws NumberFormatException, ArithmeticException {
+    Operator                            nxt=OPERAND;                                                // next operator
+    int                                 ofs;                                                        // current expression offset
+
+    for(ofs=beg; (ofs=skipWhitespace(expression,ofs,end))<=end; ofs++) {
+        Node                            rgt=NAN;                                                    // next operand (right-value) to process
+
+        for(beg=ofs; ofs<=end; ofs++) {
+            char chr=expression.charAt(ofs);
+            if((nxt=getOperator(chr))!=OPERAND) {
+                if(nxt.internal) { nxt=OPERAND; }                                                   // must kill operator to prevent spurious "Expression ends with a blank sub-expression" at end of function
+                else             { break;       }
+                }
+            else if(chr==')' || chr==',') {                                                         // end of subexpression or function argument.
+                break;
+                }
+            }
+
+        CompileOperand: {
+            char                        ch0=expression.charAt(beg);
+            boolean                     alp=Character.isLetter(ch0);
+
+            if(cur.unary!=LEFT_SIDE) {
+                if(ch0=='+') { continue;             }                                              // unary '+': no-op; i.e. +(-1) == -1
+                if(ch0=='-') { nxt=getOperator('±'); }                                              // unary '-': right-binding, high precedence operation (different from subtract)
+                }
+
+            if(beg==ofs && (cur.unary==LEFT_SIDE || nxt.unary==RIGHT_SIDE)) {
+                rgt=NAN;                                                                            // left-binding unary operator; right value will not be used and should be blank
+                }
+            else if(ch0=='(') {
+                rgt=_compile(beg+1,end);
+                ofs=skipWhitespace(expression,offset+1,end);                                        // skip past ')' and any following whitespace
+                nxt=(ofs<=end ? getOperator(expression.charAt(ofs)) : OPERAND);                     // modify next operator
+                }
+            else if(alp && nxt.symbol=='(') {
+                rgt=compileFunction(beg,end);
+                ofs=skipWhitespace(expression,offset+1,end);                                        // skip past ')' and any following whitespace
+                nxt=(ofs<=end ? getOperator(expression.charAt(ofs)) : OPERAND);                     // modify next operator
+                }
+            else if(alp) {
+                rgt=compileNamedVal(beg,(ofs-1));
+                }
+            else {
+                try {
+                    String lit=expression.substring(beg,ofs).trim();
+                    if     (stringOfsEq(expression,beg,"0x")) { long val=Long.parseLong(lit.substring(2),16); rgt=new Constant((double)val,BigInteger.valueOf(val)); }
+                    else if(lit.matches("[0-9]+")           ) { rgt=new Constant(Double.parseDouble(lit),new BigInteger(lit));                                 }
+                    else                                      { rgt=new Constant(Double.parseDouble(lit));                                                     }
+                    }
+                catch(NumberFormatException thr) {
+                    String nam=expression.substring(beg,ofs).trim();
+                    if(nam.length()==0 || nam.matches(".*\\s.*")) { throw exception(beg,"Invalid numeric value \""+nam+"\""); }
+                    rgt=new Named(expression,beg,nam,name(nam),null,false,true);                   // may only be given a value by binding
+                    }
+                }
+            }
+
+        if(opPrecedence(cur,LEFT_SIDE)<opPrecedence(nxt,RIGHT_SIDE)) {                              // correct even for last (non-operator) character, since non-operators have the artificial "precedence" zero
+            rgt=_compile((ofs+1),end,rgt,cur,nxt);                                                  // from after operator to end of current subexpression
+            ofs=offset;                                                                             // modify offset to after subexpression
+            nxt=(ofs<=end ? getOperator(expression.charAt(ofs)) : OPERAND);                         // modify next operator
+            }
+
+        lft=compileOperation(beg,lft,cur,rgt);
+
+        cur=nxt;
+        if(opPrecedence(pnd,LEFT_SIDE)>=opPrecedence(cur,RIGHT_SIDE)) { break; }
+        if(cur.symbol=='(') { ofs--; }                                                              // operator omitted for implicit multiplication of subexpression
+        }
+    if(ofs>end && cur!=OPERAND) {
+        if(cur.unary==LEFT_SIDE) { lft=compileOperation(beg,lft,cur,NAN);                                                       }
+        else                     { throw exception(ofs,"Expression ends with a blank operand after operator '"+nxt.symbol+"'"); }
+        }
+    offset=ofs;
+    return lft;
+    }
+
+/**
+ * Compile an operation, performing it at once if both operands are constant and it succeeds.
+ */
+private Node compileOperation(int beg, Node lft, Operator opr, Node rgt) {
+    Operation                           opn=new Operation(expression,beg,lft,opr,rgt);
+
+    if(lft instanceof Constant && rgt instanceof Constant) {
+        try                            { return new Constant(opn.evaluate(null),opn.exactValue()); }
+        catch(ArithmeticException thr) { ; }                                                        // fails each time it is evaluated instead
+        }
+    return opn;
+    }
+
+/**
+ * Compile a function call, resolving its handler and compiling all of its arguments.
+ */
+private Node compileFunction(int beg, int end) {
+    int                                 argbeg;
+
+    for(argbeg=beg; argbeg<=end && expression.charAt(argbeg)!='('; argbeg++) {;}
+
+    String                              fncnam =expression.substring (beg,argbeg).trim();
+    FunctionHandler                     fnchdl =pureFunctions.get(fncnam);
+    boolean                             impure =false;
+
+    if(fnchdl==null) {
+        if((fnchdl=impureFunctions.get(fncnam))==null) { throw exception(beg,"Function \""+fncnam+"\" not recognized"); }
+        impure=true;
+        }
+
+    List<Node>                          fncargs=new ArrayList<Node>();
+    int                                 idx    =skipWhitespace(expression,(argbeg+1),(end-1));
+
+    while(idx<=end && expression.charAt(idx)!=')') {
+        if(expression.charAt(idx)==',') { idx++; }
+        fncargs.add(_compile(idx,end));
+        idx=offset;
+        }
+    if(idx>end) { throw exception(beg,"Function \""+fncnam+"\" has no closing parenthesis"); }
+    offset=idx;
+
+    Node[]                              args   =fncargs.toArray(new Node[fncargs.size()]);
+    Node                                fnc    =null;
+
+    if(fnchdl==DefaultImpl.INSTANCE) {                                                              // bind the java.lang.Math method directly
+        if     (args.length==0 && DefaultImpl.NULLARY.containsKey(fncnam)) { fnc=new NullaryFunction(DefaultImpl.NULLARY.get(fncnam));          }
+        else if(args.length==1 && DefaultImpl.UNARY  .containsKey(fncnam)) { fnc=new UnaryFunction  (DefaultImpl.UNARY  .get(fncnam),args[0]);  }
+        else if(args.length==2 && DefaultImpl.BINARY .containsKey(fncnam)) { fnc=new BinaryFunction (DefaultImpl.BINARY .get(fncnam),args[0],args[1]); }
+        }
+    if(fnc==null) {                                                                                 // wrong number of arguments or external handler
+        fnc=new Function(this,expression,beg,fncnam,fnchdl,args);
+        }
+
+    if(impure) {
+        this.impure=true;
+        }
+    else if(Function.isConstant(args)) {
+        try                            { return new Constant(fnc.evaluate(null)); }
+        catch(ArithmeticException thr) { ; }                                                        // fails each time it is evaluated instead
+        }
+    return fnc;
+    }
+
+private Node compileNamedVal(int beg, int end) {
+    while(beg<end && Character.isWhitespace(expression.charAt(end))) { end--; }                     // since a letter triggers a named value, this can never reduce to beg==end
+
+    String                              nam=expression.substring(beg,(end+1));
+
+    return new Named(expression,beg,nam,name(nam),constants.get(nam),relaxed,false);
+    }
+
+private int name(String nam) {
+    int                                 idx=names.indexOf(nam);
+
+    if(idx==-1) { idx=names.size(); names.add(nam); }
+    return idx;
+    }
+
 private Operator getOperator(char chr) {
     if(chr<operators.length) {
         Operator opr=operators[chr];
@@ -445,17 +683,19 @@ private int opPrecedence(Operator opr, int sid) {
     }
 
 private double doOperation(int beg, double lft, Operator opr, double rgt) {
-    if(opr.unary!=RIGHT_SIDE && Double.isNaN(lft)) { throw exception(beg,"Mathematical NaN detected in right-operand"); }
-    if(opr.unary!=LEFT_SIDE  && Double.isNaN(rgt)) { throw exception(beg,"Mathematical NaN detected in left-operand" ); }
+    return operate(expression,beg,lft,opr,rgt);
+    }
+
+static private double operate(String exp, int beg, double lft, Operator opr, double rgt) {
+    if(opr.unary!=RIGHT_SIDE && Double.isNaN(lft)) { throw exception(exp,beg,"Mathematical NaN detected in right-operand"); }
+    if(opr.unary!=LEFT_SIDE  && Double.isNaN(rgt)) { throw exception(exp,beg,"Mathematical NaN detected in left-operand" ); }
 
     try { return opr.handler.evaluateOperator(lft,opr.symbol,rgt); }
     catch(ArithmeticException thr) {
-        throw exception(beg,"Mathematical expression \""+expression+"\" failed to evaluate",thr);
+        throw exception(exp,beg,"Mathematical expression \""+exp+"\" failed to evaluate",thr);
         }
     catch(UnsupportedOperationException thr) {
-        int tmp=beg;
-        while(tmp>0 && getOperator(expression.charAt(tmp))==null) { tmp--; }                        // set up for offset of the offending operator
-        throw exception(tmp,"Operator \""+opr.symbol+"\" not handled by math engine (Programmer error: The list of operators is inconsistent within the engine)");
+        throw exception(exp,beg,"Operator \""+opr.symbol+"\" not handled by math engine (Programmer error: The list of operators is inconsistent within the engine)");
         }
     }
 
@@ -495,21 +735,110 @@ private double doNamedVal(int beg, int end) {
     while(beg<end && Character.isWhitespace(expression.charAt(end))) { end--; }                     // since a letter triggers a named value, this can never reduce to beg==end
 
     String                  nam=expression.substring(beg,(end+1));
+
+    if(!constants.containsKey(nam) || variables.containsKey(nam)) { isConstant=false; }
+    return getNamedVal(beg,nam);
+    }
+
+private double getNamedVal(int beg, String nam) {
     Double                  val;
 
-    if     ((val=constants.get(nam))!=null) {                   return val.doubleValue(); }
-    else if((val=variables.get(nam))!=null) { isConstant=false; return val.doubleValue(); }
-    else if(relaxed                       ) { isConstant=false; return 0.0;               }
+    if     ((val=variables.get(nam))!=null) { return val.doubleValue(); }                            // variables have precedence over constants
+    else if((val=constants.get(nam))!=null) { return val.doubleValue(); }
+    else if(relaxed                       ) { return 0.0;               }
 
     throw exception(beg,"Unrecognized constant or variable \""+nam+"\"");
     }
 
+/**
+ * Perform an operation of the default operator handler exactly in long, throwing INEXACT if it has no integer result and
+ * another ArithmeticException if it overflows.
+ */
+static private long operateLong(long lft, char opr, long rgt) {
+    switch(opr) {
+        case '^' : return powerLong(lft,rgt);
+        case '*' : case '×' : case '·' : case '(' : return Math.multiplyExact(lft,rgt);
+        case '/' : case '÷' : {
+            if(rgt==0 || lft%rgt!=0                 ) { throw INEXACT;  }
+            if(lft==Long.MIN_VALUE && rgt==-1       ) { throw OVERFLOW; }
+            return lft/rgt;
+            }
+        case '%' : { if(rgt==0) { throw INEXACT; } return lft%rgt; }                                // same sign as the dividend, as for double
+        case '+' : return Math.addExact(lft,rgt);
+        case '-' : return Math.subtractExact(lft,rgt);
+        default  : throw INEXACT;
+        }
+    }
+
+static private long powerLong(long bas, long exp) {
+    if(bas==1                 ) { return 1;                          }
+    if(bas==-1                ) { return ((exp&1)==0 ? 1 : -1);      }
+    if(exp<0                  ) { throw INEXACT;                     }                              // a fraction, or infinite for zero
+    if(bas==0                 ) { return (exp==0 ? 1 : 0);           }
+    if(exp>=Long.SIZE         ) { throw OVERFLOW;                    }
+
+    long                                ret=1;
+    for(long xa=0; xa<exp; xa++) { ret=Math.multiplyExact(ret,bas); }
+    return ret;
+    }
+
+/**
+ * Perform an operation of the default operator handler exactly in BigInteger, throwing INEXACT if it has no integer result.
+ */
+static private BigInteger operateBig(BigInteger lft, char opr, BigInteger rgt) {
+    switch(opr) {
+        case '^' : return powerBig(lft,rgt);
+        case '*' : case '×' : case '·' : case '(' : return lft.multiply(rgt);
+        case '/' : case '÷' : {
+            if(rgt.signum()==0) { throw INEXACT; }
+            BigInteger[] qar=lft.divideAndRemainder(rgt);
+            if(qar[1].signum()!=0) { throw INEXACT; }
+            return qar[0];
+            }
+        case '%' : { if(rgt.signum()==0) { throw INEXACT; } return lft.remainder(rgt); }
+        case '+' : return lft.add(rgt);
+        case '-' : return lft.subtract(rgt);
+        default  : throw INEXACT;
+        }
+    }
+
+static private BigInteger powerBig(BigInteger bas, BigInteger exp) {
+    if(bas.equals(BigInteger.ONE)             ) { return BigInteger.ONE;                                               }
+    if(bas.equals(BigInteger.ONE.negate())    ) { return (exp.testBit(0) ? bas : BigInteger.ONE);                      }
+    if(exp.signum()<0                         ) { throw INEXACT;                                                       }
+    if(bas.signum()==0                        ) { return (exp.signum()==0 ? BigInteger.ONE : BigInteger.ZERO);         }
+    if(exp.bitLength()>31 || (long)bas.bitLength()*exp.intValue()>MAX_EXACT_BITS) { throw INEXACT; }         // left to double, which is infinite
+    return bas.pow(exp.intValue());
+    }
+
+static private double doFunction(String exp, int beg, String fncnam, FunctionHandler fnchdl, ArgParser fncargs) {
+    double                              ret;
+
+    try {
+        ret=fnchdl.evaluateFunction(fncnam,fncargs);
+        }
+    catch(ArithmeticException           thr) { throw thr;                                                                          }
+    catch(NoSuchMethodError             thr) { throw exception(exp,beg,"Function not supported in this JVM: \""+fncnam+"\"");  }
+    catch(UnsupportedOperationException thr) { throw exception(exp,beg,thr.getMessage());                                      }
+    catch(Throwable                     thr) { throw exception(exp,beg,"Unexpected exception parsing function arguments",thr); }
+    if(fncargs.hasNext()) { throw exception(exp,fncargs.getIndex(),"Function has too many arguments"); }
+    return ret;
+    }
+
 private ArithmeticException exception(int ofs, String txt) {
-    return new ArithmeticException(txt+" at offset "+ofs+" in expression \""+expression+"\"");
+    return exception(expression,ofs,txt);
     }
 
 private ArithmeticException exception(int ofs, String txt, Throwable thr) {
-    return new ArithmeticException(txt+" at offset "+ofs+" in expression \""+expression+"\""+" (Cause: "+(thr.getMessage()!=null ? thr.getMessage() : thr.toString())+")");
+    return exception(expression,ofs,txt,thr);
+    }
+
+static private ArithmeticException exception(String exp, int ofs, String txt) {
+    return new ArithmeticException(txt+" at offset "+ofs+" in expression \""+exp+"\"");
+    }
+
+static private ArithmeticException exception(String exp, int ofs, String txt, Throwable thr) {
+    return new ArithmeticException(txt+" at offset "+ofs+" in expression \""+exp+"\""+" (Cause: "+(thr.getMessage()!=null ? thr.getMessage() : thr.toString())+")");
     }
 
 private boolean stringOfsEq(String str, int ofs, String val) {
@@ -531,23 +860,35 @@ private int skipWhitespace(String exp, int ofs, int end) {
     public final class ArgParser
     {
     final int                           exEnd;
+    final double[]                      values;                                                     // values of the arguments of a compiled call
+    final String                        source;                                                     // expression of a compiled call, for errors
 
     int                                 index;
 
     ArgParser(int excstr, int excend) {
         exEnd=excend;
+        values=null;
+        source=null;
 
         index=(excstr+1);
 
         index=skipWhitespace(expression,index,exEnd-1);
         }
 
+    ArgParser(double[] vals, String src) {
+        exEnd=0;
+        values=vals;
+        source=src;
+
+        index=0;
+        }
+
     /**
      * Parse the next argument, throwing an exception if there are no more arguments.
      * @throws ArithmeticException If there are no more arguments.
      */
     public double next() {
-        if(!hasNext()) { throw exception(index,"Function has too few arguments"); }
+        if(!hasNext()) { throw (source!=null ? exception(source,index,"Function has too few arguments") : exception(index,"Function has too few arguments")); }
         return _next();
         }
 
@@ -560,6 +901,7 @@ private int skipWhitespace(String exp, int ofs, int end) {
         }
 
     private double _next() {
+        if(values!=null) { return values[index++]; }
         if(expression.charAt(index)==',') { index++; }
         double ret=_evaluate(index,exEnd);
         index=offset;
@@ -568,6 +910,7 @@ private int skipWhitespace(String exp, int ofs, int end) {
 
     /** Test whether there is another argument to parse. */
     public boolean hasNext() {
+        if(values!=null) { return (index<values.length); }
         return (expression.charAt(index)!=')');
         }
 
@@ -576,6 +919,405 @@ private int skipWhitespace(String exp, int ofs, int end) {
         }
     }
 
+// *************************************************************************************************
+// STATIC NESTED CLASSES - COMPILED EXPRESSION
+// *************************************************************************************************
+
+    /**
+     * A compiled expression, created by compile() and evaluated by evaluate(Bindings), or by an evaluator with
+     * evaluate(Expression) or evaluate(Expression,Bindings) to also use its variables.
+     * <p>
+     * Named values are taken from the bindings given to each evaluation, falling back to the constants of the evaluator which
+     * compiled the expression, so a compiled expression may be kept and evaluated again after its variables change.  An operand
+     * which is neither a number nor a name can only be given a value by binding.
+     * <p>
+     * This class is immutable and threadsafe, but note that whether it can be evaluated by multiple threads at once depends on
+     * the threadsafety of the bindings and of any external function handlers it calls.
+     */
+    static public final class Expression
+    extends Object
+    {
+    final String                        text;                                                       // source of the expression
+    final Node                          root;                                                       // final operation
+    final String[]                      names;                                                      // named values, in the order they are bound
+    final Double[]                      constants;                                                  // constant values of the names, if any
+    final boolean                       impure;                                                     // calls impure functions
+    final boolean                       integral;                                                   // may be evaluated exactly on integers
+
+    Expression(String txt, Node nod, String[] nams, Double[] csts, boolean imp) {
+        text=txt;
+        root=nod;
+        names=nams;
+        constants=csts;
+        impure=imp;
+        integral=nod.isIntegral();
+        }
+
+    /** Return the names of the named values of the expression, whose position is their index for binding. */
+    public String[] getVariables() {
+        return names.clone();
+        }
+
+    /** Return whether the expression is constant (i.e. contains no named values or impure functions). */
+    public boolean isConstant() {
+        return (root instanceof Constant);
+        }
+
+    /** Evaluate the expression with no variables bound. */
+    public double evaluate() throws ArithmeticException {
+        return root.evaluate(null);
+        }
+
+    /** Evaluate the expression, taking its named values from the bindings where they are bound. */
+    public double evaluate(Bindings bnd) throws ArithmeticException {
+        return root.evaluate(bnd);
+        }
+
+    /** Return whether the expression only combines integer literals and named values with + - * / % ^ (see evaluateExact). */
+    public boolean isIntegral() {
+        return integral;
+        }
+
+    /**
+     * Evaluate the expression exactly on integers, in long arithmetic, or in BigInteger if a long overflows.  Returns null when
+     * there is no exact integer value - the expression is not integral, a named value is not bound to an integer (see
+     * Bindings.isIntegral()), a division leaves a remainder, a divisor is zero or a power is negative or too large to be worth
+     * computing exactly - in which case the expression is to be evaluated in double instead.
+     *
+     * @return A Long, a BigInteger if the value does not fit in a long, or null.
+     */
+    public Number evaluateExact(Bindings bnd) {
+        if(!integral) { return null; }
+        try                            { return Long.valueOf(root.evaluateLong(bnd)); }
+        catch(ArithmeticException thr) { if(thr==INEXACT) { return null; } }                        // otherwise overflowed a long
+        try                            { return root.evaluateBig(bnd);                }
+        catch(ArithmeticException thr) { return null;                                 }
+        }
+
+    /**
+     * Evaluate the expression for each row of a batch, binding each named value to the column at its index in getVariables()
+     * and storing the value of row i in res[i].  A null column leaves the named value unbound.  Batches of at least
+     * PARALLEL_BATCH rows are split into chunks of BATCH_CHUNK rows evaluated in parallel, so any external function handlers
+     * called must be threadsafe.
+     *
+     * @throws IllegalArgumentException If there is not one column per named value or a column is shorter than the result.
+     * @throws ArithmeticException      If the expression fails to evaluate for a row.
+     */
+    public void evaluate(double[][] cols, double[] res) throws IllegalArgumentException, ArithmeticException {
+        int                             rows=res.length;
+
+        if(cols.length!=names.length) { throw new IllegalArgumentException("Expected "+names.length+" columns, not "+cols.length); }
+        for(double[] col: cols) {
+            if(col!=null && col.length<rows) { throw new IllegalArgumentException("Column shorter than the result"); }
+            }
+
+        if(rows<PARALLEL_BATCH) { evaluate(cols,res,0,rows); return; }
+        IntStream.range(0,((rows+BATCH_CHUNK-1)/BATCH_CHUNK)).parallel()
+         .forEach(chk -> evaluate(cols,res,(chk*BATCH_CHUNK),Math.min(rows,((chk+1)*BATCH_CHUNK))));
+        }
+
+    private void evaluate(double[][] cols, double[] res, int beg, int end) {
+        Columns                         bnd=new Columns(cols);                                      // one per chunk, so threads share nothing mutable
+
+        for(bnd.row=beg; bnd.row<end; bnd.row++) {
+            try                            { res[bnd.row]=root.evaluate(bnd); }
+            catch(ArithmeticException thr) { throw new ArithmeticException(thr.getMessage()+" at row "+bnd.row); }
+            }
+        }
+
+    /** Rows of a batch below which it is evaluated on the calling thread. */
+    static public final int             PARALLEL_BATCH=65536;
+
+    /** Rows of a batch evaluated by each parallel task. */
+    static public final int             BATCH_CHUNK=8192;
+
+    public String toString() {
+        return text;
+        }
+    }
+
+    /**
+     * Bindings of the named values of a compiled expression to the current row of columns of a batch.
+     */
+    static final class Columns
+    extends Object
+    implements Bindings
+    {
+    final double[][]                    columns;
+    int                                 row;
+
+    Columns(double[][] cols) {
+        columns=cols;
+        }
+
+    public boolean isBound(int idx) {
+        return (columns[idx]!=null);
+        }
+
+    public double getValue(int idx) {
+        return columns[idx][row];
+        }
+    }
+
+    /**
+     * An operand or operation of a compiled expression.
+     */
+    static abstract class Node
+    extends Object
+    {
+    abstract double evaluate(Bindings bnd);
+
+    /** Test whether the node may have an exact integer value. */
+    boolean isIntegral() {
+        return false;
+        }
+
+    /** Evaluate exactly in long, throwing INEXACT if there is no integer value or another ArithmeticException on overflow. */
+    long evaluateLong(Bindings bnd) {
+        throw INEXACT;
+        }
+
+    /** Evaluate exactly in BigInteger, throwing INEXACT if there is no integer value. */
+    BigInteger evaluateBig(Bindings bnd) {
+        throw INEXACT;
+        }
+
+    /** Return the exact integer value of a node with no named values, or null if there is none. */
+    BigInteger exactValue() {
+        try                            { return (isIntegral() ? evaluateBig(null) : null); }
+        catch(ArithmeticException thr) { return null;                                       }
+        }
+    }
+
+    static final class Constant
+    extends Node
+    {
+    final double                        value;
+    final BigInteger                    integer;                                                    // exact integer value, if any
+    final boolean                       isLong;                                                     // integer fits in a long
+    final long                          longValue;
+
+    Constant(double val) {
+        this(val,null);
+        }
+
+    Constant(double val, BigInteger igr) {
+        value=val;
+        if(igr==null && val==Math.rint(val) && Math.abs(val)<=MAX_EXACT_DOUBLE) { igr=BigInteger.valueOf((long)val); } // whole doubles are exact up to 2^53
+        integer=igr;
+        isLong=(igr!=null && igr.bitLength()<64);
+        longValue=(isLong ? igr.longValue() : 0);
+        }
+
+    double evaluate(Bindings bnd) {
+        return value;
+        }
+
+    boolean isIntegral() {
+        return (integer!=null);
+        }
+
+    long evaluateLong(Bindings bnd) {
+        if(isLong) { return longValue; }
+        throw (integer==null ? INEXACT : OVERFLOW);
+        }
+
+    BigInteger evaluateBig(Bindings bnd) {
+        if(integer!=null) { return integer; }
+        throw INEXACT;
+        }
+    }
+
+    static final class Named
+    extends Node
+    {
+    final String                        source;                                                     // expression, for errors
+    final int                           offset;                                                     // offset of the name, for errors
+    final String                        name;
+    final int                           index;                                                      // index for binding
+    final Double                        constant;                                                   // value if unbound, if any
+    final boolean                       relaxed;                                                    // zero if unbound and not constant
+    final boolean                       numeric;                                                    // not a valid name, but may be bound
+
+    Named(String src, int ofs, String nam, int idx, Double cst, boolean rlx, boolean num) {
+        source=src;
+        offset=ofs;
+        name=nam;
+        index=idx;
+        constant=cst;
+        relaxed=rlx;
+        numeric=num;
+        }
+
+    double evaluate(Bindings bnd) {
+        if     (bnd!=null && bnd.isBound(index)) { return bnd.getValue(index);   }
+        else if(numeric                        ) { throw exception(source,offset,"Invalid numeric value \""+name+"\"");            }
+        else if(constant!=null                 ) { return constant.doubleValue(); }
+        else if(relaxed                        ) { return 0.0;                    }
+        throw exception(source,offset,"Unrecognized constant or variable \""+name+"\"");
+        }
+
+    boolean isIntegral() {
+        return true;                                                                                // if bound to an integer when evaluated
+        }
+
+    long evaluateLong(Bindings bnd) {
+        if(bnd!=null && bnd.isBound(index) && bnd.isIntegral(index)) { return bnd.getLong(index); }
+        throw INEXACT;
+        }
+
+    BigInteger evaluateBig(Bindings bnd) {
+        return BigInteger.valueOf(evaluateLong(bnd));
+        }
+    }
+
+    static final class Operation
+    extends Node
+    {
+    final String                        source;                                                     // expression, for errors
+    final int                           offset;                                                     // offset of the left operand, for errors
+    final Node                          left;
+    final Operator                      operator;
+    final Node                          right;
+
+    Operation(String src, int ofs, Node lft, Operator opr, Node rgt) {
+        source=src;
+        offset=ofs;
+        left=lft;
+        operator=opr;
+        right=rgt;
+        }
+
+    double evaluate(Bindings bnd) {
+        double lft=left.evaluate(bnd);
+        return operate(source,offset,lft,operator,right.evaluate(bnd));
+        }
+
+    boolean isIntegral() {
+        return (operator.handler==DefaultImpl.INSTANCE && INTEGRAL_OPERATORS.indexOf(operator.symbol)!=-1
+         && right.isIntegral() && (operator.unary==RIGHT_SIDE || left.isIntegral()));                // the blank left operand of a unary operation is not used
+        }
+
+    long evaluateLong(Bindings bnd) {
+        long rgt=right.evaluateLong(bnd);
+        if(operator.unary==RIGHT_SIDE) { return (operator.symbol=='±' ? Math.negateExact(rgt) : rgt); }
+        return operateLong(left.evaluateLong(bnd),operator.symbol,rgt);
+        }
+
+    BigInteger evaluateBig(Bindings bnd) {
+        BigInteger rgt=right.evaluateBig(bnd);
+        if(operator.unary==RIGHT_SIDE) { return (operator.symbol=='±' ? rgt.negate() : rgt); }
+        return operateBig(left.evaluateBig(bnd),operator.symbol,rgt);
+        }
+    }
+
+    static final class Function
+    extends Node
+    {
+    final MathEval                      owner;                                                      // evaluator which compiled the call, for the ArgParser
+    final String                        source;                                                     // expression, for errors
+    final int                           offset;                                                     // offset of the function name, for errors
+    final String                        name;
+    final FunctionHandler               handler;
+    final Node[]                        arguments;
+
+    Function(MathEval own, String src, int ofs, String nam, FunctionHandler hdl, Node[] args) {
+        owner=own;
+        source=src;
+        offset=ofs;
+        name=nam;
+        handler=hdl;
+        arguments=args;
+        }
+
+    static boolean isConstant(Node[] args) {
+        for(Node arg: args) {
+            if(!(arg instanceof Constant)) { return false; }
+            }
+        return true;
+        }
+
+    double evaluate(Bindings bnd) {
+        double[] vals=new double[arguments.length];
+        for(int xa=0; xa<vals.length; xa++) { vals[xa]=arguments[xa].evaluate(bnd); }
+        return doFunction(source,offset,name,handler,owner.new ArgParser(vals,source));
+        }
+    }
+
+    static final class NullaryFunction
+    extends Node
+    {
+    final DoubleSupplier                function;
+
+    NullaryFunction(DoubleSupplier fnc) {
+        function=fnc;
+        }
+
+    double evaluate(Bindings bnd) {
+        return function.getAsDouble();
+        }
+    }
+
+    static final class UnaryFunction
+    extends Node
+    {
+    final DoubleUnaryOperator           function;
+    final Node                          argument;
+
+    UnaryFunction(DoubleUnaryOperator fnc, Node arg) {
+        function=fnc;
+        argument=arg;
+        }
+
+    double evaluate(Bindings bnd) {
+        return function.applyAsDouble(argument.evaluate(bnd));
+        }
+    }
+
+    static final class BinaryFunction
+    extends Node
+    {
+    final DoubleBinaryOperator          function;
+    final Node                          left;
+    final Node                          right;
+
+    BinaryFunction(DoubleBinaryOperator fnc, Node lft, Node rgt) {
+        function=fnc;
+        left=lft;
+        right=rgt;
+        }
+
+    double evaluate(Bindings bnd) {
+        double lft=left.evaluate(bnd);
+        return function.applyAsDouble(lft,right.evaluate(bnd));
+        }
+    }
+
+    /**
+     * Bindings which fall back to the variables of this evaluator, which have precedence over constants.
+     */
+    private final class VariableBindings
+    extends Object
+    implements Bindings
+    {
+    final String[]                      names;
+    final Bindings                      bindings;
+
+    VariableBindings(String[] nams, Bindings bnd) {
+        names=nams;
+        bindings=bnd;
+        }
+
+    public boolean isBound(int idx) {
+        return ((bindings!=null && bindings.isBound(idx)) || variables.containsKey(names[idx]));
+        }
+
+    public double getValue(int idx) {
+        if(bindings!=null && bindings.isBound(idx)) { return bindings.getValue(idx); }
+        return variables.get(names[idx]).doubleValue();
+        }
+    }
+
 // *************************************************************************************************
 // STATIC NESTED CLASSES - OPERATOR
 // *************************************************************************************************
@@ -650,6 +1392,52 @@ private int skipWhitespace(String exp, int ofs, int end) {
     public double evaluateFunction(String fncnam, ArgParser fncargs) throws ArithmeticException;
     }
 
+// *************************************************************************************************
+// STATIC NESTED CLASSES - EXACT EVALUATION
+// *************************************************************************************************
+
+    /**
+     * Signals that exact integer evaluation must give way, thrown often enough that it is shared and carries no stack trace.
+     */
+    @SuppressWarnings("serial")
+    static final class Inexact
+    extends ArithmeticException
+    {
+    Inexact(String txt) {
+        super(txt);
+        }
+
+    public Throwable fillInStackTrace() {
+        return this;
+        }
+    }
+
+// *************************************************************************************************
+// STATIC NESTED CLASSES - VARIABLE BINDINGS INTERFACE
+// *************************************************************************************************
+
+    /**
+     * Live values for the named values of a compiled expression, by their index in Expression.getVariables().
+     */
+    static public interface Bindings
+    {
+    /** Test whether the named value currently has a value; if not, the variables and constants of the evaluator are used. */
+    public boolean isBound(int idx);
+
+    /** Get the current value of a bound named value. */
+    public double getValue(int idx);
+
+    /** Test whether a bound named value is currently an integer, so that Expression.evaluateExact() may use it. */
+    default public boolean isIntegral(int idx) {
+        return false;
+        }
+
+    /** Get the current value of a bound integer named value. */
+    default public long getLong(int idx) {
+        return (long)getValue(idx);
+        }
+    }
+
 // *************************************************************************************************
 // STATIC NESTED CLASSES - DEFAULT OPERATOR/FUNCTION IMPLEMENTATION
 // *************************************************************************************************
@@ -747,6 +1535,42 @@ private int skipWhitespace(String exp, int ofs, int end) {
 
     static final DefaultImpl            INSTANCE=new DefaultImpl();
 
+    // The default functions by number of arguments, bound directly by compiled expressions; must agree with evaluateFunction()
+    static final SortedMap<String,DoubleSupplier>       NULLARY=new TreeMap<String,DoubleSupplier>      (String.CASE_INSENSITIVE_ORDER);
+    static final SortedMap<String,DoubleUnaryOperator>  UNARY  =new TreeMap<String,DoubleUnaryOperator> (String.CASE_INSENSITIVE_ORDER);
+    static final SortedMap<String,DoubleBinaryOperator> BINARY =new TreeMap<String,DoubleBinaryOperator>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        UNARY  .put("abs"           ,Math::abs        );
+        UNARY  .put("acos"          ,Math::acos       );
+        UNARY  .put("asin"          ,Math::asin       );
+        UNARY  .put("atan"          ,Math::atan       );
+        UNARY  .put("cbrt"          ,Math::cbrt       );
+        UNARY  .put("ceil"          ,Math::ceil       );
+        UNARY  .put("cos"           ,Math::cos        );
+        UNARY  .put("cosh"          ,Math::cosh       );
+        UNARY  .put("exp"           ,Math::exp        );
+        UNARY  .put("expm1"         ,Math::expm1      );
+        UNARY  .put("floor"         ,Math::floor      );
+        UNARY  .put("log"           ,Math::log        );
+        UNARY  .put("log10"         ,Math::log10      );
+        UNARY  .put("log1p"         ,Math::log1p      );
+        BINARY .put("max"           ,Math::max        );
+        BINARY .put("min"           ,Math::min        );
+        NULLARY.put("random"        ,Math::random     ); // impure
+        UNARY  .put("round"         ,val -> Math.round(val));
+        UNARY  .put("roundHE"       ,Math::rint       ); // round half-even
+        UNARY  .put("signum"        ,Math::signum     );
+        UNARY  .put("sin"           ,Math::sin        );
+        UNARY  .put("sinh"          ,Math::sinh       );
+        UNARY  .put("sqrt"          ,Math::sqrt       );
+        UNARY  .put("tan"           ,Math::tan        );
+        UNARY  .put("tanh"          ,Math::tanh       );
+        UNARY  .put("toDegrees"     ,Math::toDegrees  );
+        UNARY  .put("toRadians"     ,Math::toRadians  );
+        UNARY  .put("ulp"           ,Math::ulp        );
+        }
+
     static private final Operator       OPR_EQU =new Operator('=',99,99,RIGHT_SIDE,true ,DefaultImpl.INSTANCE); // simple assignment, used as the final operation, must be maximum precedence
     static private final Operator       OPR_PWR =new Operator('^',80,81,NO_SIDE   ,false,DefaultImpl.INSTANCE); // power
     static private final Operator       OPR_NEG =new Operator('±',60,60,RIGHT_SIDE,true ,DefaultImpl.INSTANCE); // unary negation
@@ -830,6 +1654,15 @@ static public final FunctionHandler     DFT_FUNCTION_HANDLER=DefaultImpl.INSTANC
 
 static private final Operator           OPERAND=new Operator('\0',0,0,NO_SIDE,false,null);          // special "non-operator" representing an operand character
 
+static private final Node               ZERO   =new Constant(0.0);                                  // initial left-value of a compiled expression
+static private final Node               NAN    =new Constant(Double.NaN);                           // blank operand of a compiled unary operation
+
+static private final String             INTEGRAL_OPERATORS="=^±*×·(/÷%+-";                          // default operators with exact integer results
+static private final double             MAX_EXACT_DOUBLE=9007199254740992.0;                        // 2^53, above which whole doubles may be inexact
+static private final long               MAX_EXACT_BITS=1<<20;                                       // largest power computed exactly, in bits
+static private final ArithmeticException INEXACT =new Inexact("No exact integer value");            // thrown when evaluating exactly
+static private final ArithmeticException OVERFLOW=new Inexact("Exact integer value overflows a long");
+
 // *************************************************************************************************
 // STATIC METHODS - UTILITY
 // *************************************************************************************************
@@ -0,0 +1,40 @@
+#!/bin/sh
+# Run every program of the corpus on each engine, with and without
+# BBOptimizer, and check that the output is the interpreter's. The output
+# of the unoptimised interpreter is kept next to each program as a .out
+# file, which the optimised interpreter must match as well, error messages
+# included; run with -update to rewrite those after a deliberate change.
+cd "$(dirname "$0")" || exit 1
+classes=$(mktemp -d) || exit 1
+trap 'rm -rf "$classes"' EXIT
+javac -encoding UTF-8 -nowarn -d "$classes" ../*.java 2>&1 | grep -v "^Note:"
+if [ "$1" = "-update" ]; then
+    for program in *.bb; do
+        java -cp "$classes" BBeat -O0 "$program" > "${program%.bb}.out" 2>&1
+    done
+    exit 0
+fi
+failed=0
+for program in *.bb; do
+    expected="${program%.bb}.out"
+    reference=$(java -cp "$classes" BBeat -O0 "$program" 2>&1)
+    if [ "$reference" != "$(cat "$expected")" ]; then
+        echo "FAIL $program: interpreter output changed"
+        failed=1
+    fi
+    for options in "-O0" ""; do
+        interpreted=$(java -cp "$classes" BBeat $options "$program" 2>&1)
+        if [ -z "$options" ] && [ "$interpreted" != "$reference" ]; then
+            echo "FAIL $program: optimised output differs from $expected"
+            failed=1
+        fi
+        for engine in vm jvm closure; do
+            if [ "$(java -cp "$classes" BBeat $options -engine=$engine "$program" 2>&1)" != "$interpreted" ]; then
+                echo "FAIL $program: -engine=$engine $options differs from the interpreter"
+                failed=1
+            fi
+        done
+    done
+done
+[ $failed = 0 ] && echo "All programs passed"
+exit $failed